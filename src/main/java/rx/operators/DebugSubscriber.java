@@ -16,27 +16,90 @@ import rx.Observable.Operator;
 import rx.Producer;
 import rx.Subscriber;
 import rx.exceptions.Exceptions;
+import rx.observers.SafeSubscriber;
+import rx.plugins.AssemblySite;
+import rx.plugins.DebugHook;
 import rx.plugins.DebugNotification;
+import rx.plugins.DebugNotification.Kind;
 import rx.plugins.DebugNotificationListener;
+import rx.plugins.DebugRegistry;
 
 public final class DebugSubscriber<T, C> extends Subscriber<T> {
-    private DebugNotificationListener<C> listener;
+    static final int ON_START = 1 << Kind.OnStart.ordinal();
+    static final int ON_NEXT = 1 << Kind.OnNext.ordinal();
+    static final int ON_ERROR = 1 << Kind.OnError.ordinal();
+    static final int ON_COMPLETED = 1 << Kind.OnCompleted.ordinal();
+    static final int REQUEST = 1 << Kind.Request.ordinal();
+    static final int UNSUBSCRIBE = 1 << Kind.Unsubscribe.ordinal();
+
+    private final DebugNotificationListener<C> listener;
+    private final DebugHook<C> hook;
     private final Subscriber<? super T> o;
     private Operator<? extends T, ?> from = null;
     private Operator<?, ? super T> to = null;
+    private final DebugNotification<T> onNextNotification;
+    /**
+     * The {@link DebugRegistry} ids, 0 until asked for the first time.
+     */
+    private int observerId;
+    private int fromId;
+    private int toId;
+    private AssemblySite assemblySite;
+    private DebugSubscriber<?, ?> downstream;
+    private final int kinds;
 
     public DebugSubscriber(DebugNotificationListener<C> listener, Subscriber<? super T> _o, Operator<? extends T, ?> _out, Operator<?, ? super T> _in) {
+        this(listener, _o, _out, _in, false);
+    }
+
+    /**
+     * @param reuseOnNext
+     *            when true the same {@link DebugNotification} is passed to the listener for every
+     *            onNext so no allocation is done per value.
+     */
+    public DebugSubscriber(DebugNotificationListener<C> listener, Subscriber<? super T> _o, Operator<? extends T, ?> _out, Operator<?, ? super T> _in, boolean reuseOnNext) {
+        this(listener, _o, _out, _in, reuseOnNext, -1);
+    }
+
+    /**
+     * @param kinds
+     *            a bit set of the {@link Kind#ordinal()}s of the notifications to send to the
+     *            listener, the other events are passed on without one.
+     * @see rx.plugins.DebugFilter#getKindMask()
+     */
+    public DebugSubscriber(DebugNotificationListener<C> listener, Subscriber<? super T> _o, Operator<? extends T, ?> _out, Operator<?, ? super T> _in, boolean reuseOnNext, int kinds) {
+        this(listener, null, _o, _out, _in, reuseOnNext, kinds);
+    }
+
+    /**
+     * Notifies whatever the {@link DebugHook#getActiveListener()} is at the time of each event and
+     * passes the events through while the hook is disabled.
+     */
+    public DebugSubscriber(DebugHook<C> hook, Subscriber<? super T> _o, Operator<? extends T, ?> _out, Operator<?, ? super T> _in, boolean reuseOnNext, int kinds) {
+        this(null, hook, _o, _out, _in, reuseOnNext, kinds);
+    }
+
+    private DebugSubscriber(DebugNotificationListener<C> listener, DebugHook<C> hook, Subscriber<? super T> _o, Operator<? extends T, ?> _out, Operator<?, ? super T> _in, boolean reuseOnNext,
+            int kinds) {
         super(_o);
+        this.kinds = kinds;
         this.listener = listener;
+        this.hook = hook;
         this.o = _o;
         this.from = _out;
         this.to = _in;
-        this.add(new DebugSubscription<T, C>(this, listener));
+        this.onNextNotification = reuseOnNext && (kinds & ON_NEXT) != 0 ? DebugNotification.<T> createReusableOnNext(_o) : null;
+        this.add(new DebugSubscription<T, C>(this));
     }
 
     @Override
     public void onStart() {
-        final DebugNotification<T> n = DebugNotification.createStart(o, from, to);
+        final DebugNotificationListener<C> listener = listener();
+        if (listener == null || (kinds & ON_START) == 0) {
+            o.onStart();
+            return;
+        }
+        final DebugNotification<T> n = stamp(DebugNotification.<T> createStart(o, from, to));
         C context = listener.start(n);
         try {
             o.onStart();
@@ -49,7 +112,12 @@ public final class DebugSubscriber<T, C> extends Subscriber<T> {
 
     @Override
     public void onCompleted() {
-        final DebugNotification<T> n = DebugNotification.createOnCompleted(o, from, to);
+        final DebugNotificationListener<C> listener = listener();
+        if (listener == null || (kinds & ON_COMPLETED) == 0) {
+            o.onCompleted();
+            return;
+        }
+        final DebugNotification<T> n = stamp(DebugNotification.<T> createOnCompleted(o, from, to));
         C context = listener.start(n);
         try {
             o.onCompleted();
@@ -62,7 +130,12 @@ public final class DebugSubscriber<T, C> extends Subscriber<T> {
 
     @Override
     public void onError(Throwable e) {
-        final DebugNotification<T> n = DebugNotification.createOnError(o, from, e, to);
+        final DebugNotificationListener<C> listener = listener();
+        if (listener == null || (kinds & ON_ERROR) == 0) {
+            o.onError(e);
+            return;
+        }
+        final DebugNotification<T> n = stamp(DebugNotification.<T> createOnError(o, from, e, to));
         C context = listener.start(n);
         try {
             o.onError(e);
@@ -75,7 +148,14 @@ public final class DebugSubscriber<T, C> extends Subscriber<T> {
 
     @Override
     public void onNext(T t) {
-        final DebugNotification<T> n = DebugNotification.createOnNext(o, from, t, to);
+        final DebugNotificationListener<C> listener = listener();
+        if (listener == null || (kinds & ON_NEXT) == 0) {
+            o.onNext(t);
+            return;
+        }
+        final DebugNotification<T> n = stamp(onNextNotification != null ? onNextNotification.reuseOnNext(from, t, to) : DebugNotification.createOnNext(o, from, t, to));
+        if (hook != null)
+            n.setValueCapture(hook.getValueCapture());
         t = (T) listener.onNext(n);
 
         C context = listener.start(n);
@@ -90,10 +170,19 @@ public final class DebugSubscriber<T, C> extends Subscriber<T> {
 
     @Override
     public void setProducer(final Producer producer) {
+        if ((kinds & REQUEST) == 0) {
+            o.setProducer(producer);
+            return;
+        }
         o.setProducer(new Producer() {
             @Override
             public void request(long n) {
-                final DebugNotification<T> dn = DebugNotification.createRequest(o, from, to, n);
+                final DebugNotificationListener<C> listener = listener();
+                if (listener == null) {
+                    producer.request(n);
+                    return;
+                }
+                final DebugNotification<T> dn = stamp(DebugNotification.<T> createRequest(o, from, to, n));
 
                 C context = listener.start(dn);
                 try {
@@ -107,12 +196,32 @@ public final class DebugSubscriber<T, C> extends Subscriber<T> {
         });
     }
 
+    boolean isTraced(int kind) {
+        return (kinds & kind) != 0;
+    }
+
+    /**
+     * @return the listener to notify of the next event or null if there is none.
+     */
+    DebugNotificationListener<C> listener() {
+        return hook == null ? listener : hook.getActiveListener();
+    }
+
+    /**
+     * Lets the notification resolve its ids through this subscriber so they are looked up at most
+     * once per subscriber, and only if a listener asks for them.
+     */
+    DebugNotification<T> stamp(DebugNotification<T> n) {
+        return n.setIdSource(this).setAssemblySite(assemblySite);
+    }
+
     public Operator<? extends T, ?> getFrom() {
         return from;
     }
 
     public void setFrom(Operator<? extends T, ?> bind) {
         this.from = bind;
+        this.fromId = 0;
     }
 
     public Operator<?, ? super T> getTo() {
@@ -121,6 +230,58 @@ public final class DebugSubscriber<T, C> extends Subscriber<T> {
 
     public void setTo(Operator<?, ? super T> op) {
         this.to = op;
+        this.toId = 0;
+    }
+
+    /**
+     * @return the {@link DebugRegistry} id of the actual subscriber.
+     */
+    public int getObserverId() {
+        if (observerId == 0)
+            observerId = DebugRegistry.getInstance().id(o instanceof SafeSubscriber ? ((SafeSubscriber<?>) o).getActual() : o);
+        return observerId;
+    }
+
+    public int getFromId() {
+        if (fromId == 0)
+            fromId = DebugRegistry.getInstance().id(from);
+        return fromId;
+    }
+
+    public int getToId() {
+        if (toId == 0)
+            toId = DebugRegistry.getInstance().id(to);
+        return toId;
+    }
+
+    /**
+     * @return the {@link DebugRegistry} id of the subscriber the to operator emits to for the same
+     *         subscription, 0 if not known.
+     */
+    public int getDownstreamId() {
+        final DebugSubscriber<?, ?> d = downstream;
+        return d == null ? 0 : d.getObserverId();
+    }
+
+    /**
+     * Links this subscriber going into the to operator with the one it emits to, set by the
+     * {@link DebugHook} when it lifts the operator so listeners can match what goes into an
+     * operator with what comes out of it for one subscription.
+     */
+    public void setDownstream(DebugSubscriber<?, ?> downstream) {
+        this.downstream = downstream;
+    }
+
+    /**
+     * @return where the operator or source emitting to this subscriber was assembled, null unless
+     *         the {@link rx.plugins.DebugHook} has an {@link rx.plugins.AssemblyTracker}.
+     */
+    public AssemblySite getAssemblySite() {
+        return assemblySite;
+    }
+
+    public void setAssemblySite(AssemblySite site) {
+        this.assemblySite = site;
     }
 
     public Subscriber<? super T> getActual() {
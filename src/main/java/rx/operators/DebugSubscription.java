@@ -19,16 +19,19 @@ import rx.plugins.DebugNotificationListener;
 
 final class DebugSubscription<T, C> implements Subscription {
     private final DebugSubscriber<T, C> debugObserver;
-    private DebugNotificationListener<C> listener;
 
-    DebugSubscription(DebugSubscriber<T, C> debugObserver, DebugNotificationListener<C> listener) {
+    DebugSubscription(DebugSubscriber<T, C> debugObserver) {
         this.debugObserver = debugObserver;
-        this.listener = listener;
     }
 
     @Override
     public void unsubscribe() {
-        final DebugNotification<T> n = DebugNotification.<T> createUnsubscribe(debugObserver.getActual(), debugObserver.getFrom(), debugObserver.getTo());
+        final DebugNotificationListener<C> listener = debugObserver.listener();
+        if (listener == null || !debugObserver.isTraced(DebugSubscriber.UNSUBSCRIBE)) {
+            debugObserver.unsubscribe();
+            return;
+        }
+        final DebugNotification<T> n = debugObserver.stamp(DebugNotification.<T> createUnsubscribe(debugObserver.getActual(), debugObserver.getFrom(), debugObserver.getTo()));
         C context = listener.start(n);
         try {
             debugObserver.unsubscribe();
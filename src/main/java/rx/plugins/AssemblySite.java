@@ -0,0 +1,59 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Where in the application an {@link rx.Observable.Operator} or {@link rx.Observable.OnSubscribe}
+ * was put into a chain, found by an {@link AssemblyTracker}. Instances are shared by every
+ * assembly of the same class from the same call site.
+ */
+public final class AssemblySite {
+    private final String className;
+    private final List<StackTraceElement> frames;
+
+    AssemblySite(String className, StackTraceElement[] frames) {
+        this.className = className;
+        this.frames = Collections.unmodifiableList(Arrays.asList(frames));
+    }
+
+    /**
+     * @return the class name of the operator or {@link rx.Observable.OnSubscribe}.
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return the first frame outside of RxJava and this library.
+     */
+    public StackTraceElement getCallSite() {
+        return frames.get(0);
+    }
+
+    /**
+     * @return the application frames starting with the call site, truncated to the depth of the
+     *         tracker.
+     */
+    public List<StackTraceElement> getFrames() {
+        return frames;
+    }
+
+    @Override
+    public String toString() {
+        return className + " at " + getCallSite();
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the {@link AssemblySite} of the operators and {@link rx.Observable.OnSubscribe}s seen by
+ * the {@link DebugHook}.
+ * <p>
+ * {@link DebugHook#onCreate} is called when {@link rx.Observable#create} assembles a source so it
+ * sees the code building the chain. {@link DebugHook#onLift} is only called once the lifted
+ * {@link rx.Observable} is subscribed to so for operators the site found is where the chain was
+ * first subscribed.
+ * <p>
+ * Filling in a stack trace is expensive so only one in n assembled instances is captured, the
+ * others get no site. Each instance is looked at once, what was found is kept in its
+ * {@link DebugRegistry} entry and returned for every later subscribe without walking the stack
+ * again. The sites are cached by class and call site so repeated assemblies from the same line
+ * share one instance.
+ *
+ * @see DebugHook#setAssemblyTracker(AssemblyTracker)
+ */
+public class AssemblyTracker {
+    /**
+     * Frames from classes starting with these are skipped to find the call site.
+     */
+    private static final String[] SKIPPED = { "rx.Observable", "rx.Subscriber", "rx.internal.", "rx.plugins.", "rx.operators.", "rx.observers.", "rx.observables.", "rx.subjects.",
+            "rx.schedulers.", "rx.functions.", "rx.exceptions.", "java.", "javax.", "sun.", "jdk." };
+
+    private final long sampleOneIn;
+    private final int depth;
+    private final AtomicLong count = new AtomicLong();
+    private final ConcurrentMap<SiteKey, AssemblySite> sites = new ConcurrentHashMap<SiteKey, AssemblySite>();
+
+    /**
+     * @param sampleOneIn
+     *            capture the first and then every nth assembly.
+     * @param depth
+     *            the maximum number of application frames kept for each site.
+     */
+    public AssemblyTracker(long sampleOneIn, int depth) {
+        if (sampleOneIn < 1)
+            throw new IllegalArgumentException("sampleOneIn must be greater than zero");
+        if (depth < 1)
+            throw new IllegalArgumentException("depth must be greater than zero");
+        this.sampleOneIn = sampleOneIn;
+        this.depth = depth;
+    }
+
+    /**
+     * Captures one in 100 assembled instances keeping up to 8 frames.
+     */
+    public AssemblyTracker() {
+        this(100, 8);
+    }
+
+    /**
+     * @param assembled
+     *            the operator or {@link rx.Observable.OnSubscribe} being assembled.
+     * @return the site the current thread is assembling it from or null if this instance isn't
+     *         sampled or no frame outside of RxJava was found. Later calls for the same instance
+     *         return what was found the first time.
+     */
+    public AssemblySite capture(Object assembled) {
+        final DebugRegistry.Descriptor d = DebugRegistry.getInstance().describe(assembled);
+        final Object seen = d.assembly;
+        if (seen instanceof Found && ((Found) seen).tracker == this)
+            return ((Found) seen).site;
+        final AssemblySite site = captureNew(assembled);
+        d.assembly = new Found(this, site);
+        return site;
+    }
+
+    /**
+     * Captures the site of an instance that is only ever assembled once, such as the
+     * {@link rx.Observable.OnSubscribe} passed to {@link DebugHook#onCreate}, without remembering
+     * it.
+     */
+    AssemblySite captureNew(Object assembled) {
+        if (sampleOneIn > 1 && count.getAndIncrement() % sampleOneIn != 0)
+            return null;
+        final StackTraceElement[] stack = new Throwable().getStackTrace();
+        int first = 0;
+        while (first < stack.length && skipped(stack[first].getClassName())) {
+            first++;
+        }
+        if (first == stack.length)
+            return null;
+
+        final SiteKey key = new SiteKey(assembled.getClass(), stack[first]);
+        AssemblySite site = sites.get(key);
+        if (site == null) {
+            site = new AssemblySite(assembled.getClass().getName(), Arrays.copyOfRange(stack, first, Math.min(stack.length, first + depth)));
+            final AssemblySite existing = sites.putIfAbsent(key, site);
+            if (existing != null)
+                site = existing;
+        }
+        return site;
+    }
+
+    /**
+     * @return the number of distinct sites found so far.
+     */
+    public int getSiteCount() {
+        return sites.size();
+    }
+
+    private static boolean skipped(String className) {
+        for (String prefix : SKIPPED) {
+            if (className.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * What a tracker found for one instance, null if it wasn't sampled.
+     */
+    private static final class Found {
+        final AssemblyTracker tracker;
+        final AssemblySite site;
+
+        Found(AssemblyTracker tracker, AssemblySite site) {
+            this.tracker = tracker;
+            this.site = site;
+        }
+    }
+
+    private static final class SiteKey {
+        private final Class<?> type;
+        private final StackTraceElement callSite;
+
+        SiteKey(Class<?> type, StackTraceElement callSite) {
+            this.type = type;
+            this.callSite = callSite;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SiteKey))
+                return false;
+            final SiteKey other = (SiteKey) obj;
+            return type == other.type && callSite.equals(other.callSite);
+        }
+
+        @Override
+        public int hashCode() {
+            return type.hashCode() * 31 + callSite.hashCode();
+        }
+    }
+}
@@ -0,0 +1,352 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observable.Operator;
+import rx.internal.operators.OperatorObserveOn;
+import rx.plugins.DebugNotification.Kind;
+
+/**
+ * A {@link DebugNotificationListener} that measures how long values wait in the queue of operators
+ * that hand them over to another thread, such as {@link OperatorObserveOn}.
+ * <p>
+ * A value is tagged with the time and thread when it goes into a boundary operator, the onNext
+ * with the operator as its to, and matched when the same instance comes out of it, the onNext
+ * with the operator as its from. The handoff latency of each boundary class is kept in a
+ * {@link LatencyHistogram} along with how many values are in flight and a history of that depth
+ * sampled over time.
+ * <p>
+ * The values in flight are kept per subscription, keyed by the
+ * {@link DebugNotification#getDownstreamId()} going in and the observer id coming out, in a ring
+ * allocated once for the subscription. The values of a subscription go in on one thread at a time
+ * and come out on one thread at a time so the ring is written without locks.
+ * <p>
+ * Values are matched by identity in the order they went in so it only works for operators that
+ * pass the values through unchanged and in order, {@link rx.internal.operators.OperatorSubscribeOn}
+ * only moves the subscribe to another thread and has no queue to measure. Null values aren't
+ * tracked, nor are values going into an operator the {@link DebugHook} didn't lift.
+ */
+public class AsyncBoundaryDebugNotificationListener extends DebugNotificationListener<Object> {
+    private static final int DEPTH_SAMPLES = 256;
+
+    private final Class<?>[] boundaries;
+    private final int capacity;
+    private final long sampleIntervalNanos;
+    private final ConcurrentMap<Class<?>, Boolean> isBoundary = new ConcurrentHashMap<Class<?>, Boolean>();
+    private final IdTable<Ring> pending = new IdTable<Ring>();
+    private final ConcurrentMap<Class<?>, Boundary> stats = new ConcurrentHashMap<Class<?>, Boundary>();
+
+    /**
+     * @param capacity
+     *            the most values tracked in flight for one subscription, rounded up to a power of
+     *            two. Values going in beyond it aren't tracked and are counted as unmatched.
+     * @param sampleInterval
+     *            the minimum time between two samples of the depth of a boundary.
+     * @param boundaries
+     *            the operator classes to measure.
+     */
+    public AsyncBoundaryDebugNotificationListener(int capacity, long sampleInterval, TimeUnit unit, Class<?>... boundaries) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be greater than zero");
+        this.capacity = capacity;
+        this.sampleIntervalNanos = unit.toNanos(sampleInterval);
+        this.boundaries = boundaries;
+    }
+
+    /**
+     * Measures {@link OperatorObserveOn} tracking up to 256 values in flight per subscription and
+     * sampling the depth at most every 100ms.
+     */
+    public AsyncBoundaryDebugNotificationListener() {
+        this(256, 100, TimeUnit.MILLISECONDS, OperatorObserveOn.class);
+    }
+
+    @Override
+    boolean needsCallingThread() {
+        return true;
+    }
+
+    @Override
+    public <T> Object start(DebugNotification<T> n) {
+        final Operator<?, ?> to = n.getTo();
+        final Operator<?, ?> from = n.getFrom();
+        final Kind kind = n.getKind();
+        if (kind == Kind.OnNext) {
+            final Object value = n.getValue();
+            if (value == null)
+                return null;
+            if (to != null && isBoundary(to))
+                enqueue(to, n.getDownstreamId(), value);
+            if (from != null && isBoundary(from))
+                dequeue(n.getObserverId(), value);
+        } else if ((kind == Kind.OnCompleted || kind == Kind.OnError) && from != null && isBoundary(from)) {
+            // the terminal event comes out last, anything still in flight was lost
+            final Ring r = pending.get(n.getObserverId());
+            if (r != null)
+                r.clear();
+        }
+        return null;
+    }
+
+    private void enqueue(Operator<?, ?> operator, int id, Object value) {
+        if (id == 0)
+            return;
+        Ring r = pending.get(id);
+        if (r == null)
+            r = pending.putIfAbsent(id, new Ring(capacity, boundary(operator)));
+        final Boundary b = r.boundary;
+        if (r.offer(value, System.nanoTime(), Thread.currentThread().getId()))
+            b.sampleDepth(b.inFlight.incrementAndGet(), sampleIntervalNanos);
+        else
+            b.unmatched.incrementAndGet();
+    }
+
+    private void dequeue(int id, Object value) {
+        final Ring r = pending.get(id);
+        if (r != null)
+            r.poll(value, System.nanoTime(), Thread.currentThread().getId(), sampleIntervalNanos);
+    }
+
+    private boolean isBoundary(Operator<?, ?> operator) {
+        final Class<?> c = operator.getClass();
+        Boolean b = isBoundary.get(c);
+        if (b == null) {
+            b = Boolean.FALSE;
+            for (Class<?> boundary : boundaries) {
+                if (boundary.isAssignableFrom(c))
+                    b = Boolean.TRUE;
+            }
+            isBoundary.put(c, b);
+        }
+        return b;
+    }
+
+    private Boundary boundary(Operator<?, ?> operator) {
+        final Class<?> c = operator.getClass();
+        Boundary b = stats.get(c);
+        if (b == null) {
+            b = new Boundary();
+            final Boundary existing = stats.putIfAbsent(c, b);
+            if (existing != null)
+                b = existing;
+        }
+        return b;
+    }
+
+    /**
+     * @param reset
+     *            zero the latencies and counts while copying them.
+     * @return the statistics of every boundary class seen by class name.
+     */
+    public Map<String, BoundaryStats> snapshot(boolean reset) {
+        final Map<String, BoundaryStats> snapshot = new HashMap<String, BoundaryStats>();
+        for (Entry<Class<?>, Boundary> e : stats.entrySet()) {
+            snapshot.put(e.getKey().getName(), e.getValue().snapshot(reset));
+        }
+        return snapshot;
+    }
+
+    /**
+     * The values of one subscription in flight through a boundary operator with the time and
+     * thread they went in, in the order they went in. Only the thread of the onNext going in
+     * offers and only the thread of the one coming out polls and clears.
+     */
+    private static final class Ring {
+        final Boundary boundary;
+        private final Object[] values;
+        private final long[] times;
+        private final long[] threads;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        Ring(int capacity, Boundary boundary) {
+            int size = 1;
+            while (size < capacity) {
+                size <<= 1;
+            }
+            this.boundary = boundary;
+            this.values = new Object[size];
+            this.times = new long[size];
+            this.threads = new long[size];
+            this.mask = size - 1;
+        }
+
+        /**
+         * @return false if the ring is full.
+         */
+        boolean offer(Object value, long time, long thread) {
+            final long t = tail.get();
+            if (t - head.get() > mask)
+                return false;
+            final int i = (int) t & mask;
+            values[i] = value;
+            times[i] = time;
+            threads[i] = thread;
+            tail.lazySet(t + 1);
+            return true;
+        }
+
+        /**
+         * Matches the value with the oldest instance in flight, the values that went in before it
+         * were lost.
+         */
+        void poll(Object value, long now, long thread, long intervalNanos) {
+            final long h = head.get();
+            final long t = tail.get();
+            long p = h;
+            while (p < t && values[(int) p & mask] != value) {
+                p++;
+            }
+            if (p == t)
+                return;
+            final int i = (int) p & mask;
+            boundary.latency.record(now - times[i]);
+            if (threads[i] != thread)
+                boundary.crossThread.incrementAndGet();
+            release(h, p + 1);
+            if (p > h)
+                boundary.forget(p - h);
+            boundary.sampleDepth(boundary.inFlight.decrementAndGet(), intervalNanos);
+        }
+
+        void clear() {
+            final long h = head.get();
+            final long t = tail.get();
+            release(h, t);
+            if (t > h)
+                boundary.forget(t - h);
+        }
+
+        private void release(long from, long to) {
+            for (long p = from; p < to; p++) {
+                values[(int) p & mask] = null;
+            }
+            head.lazySet(to);
+        }
+    }
+
+    private static final class Boundary {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong inFlight = new AtomicLong();
+        final AtomicLong crossThread = new AtomicLong();
+        final AtomicLong unmatched = new AtomicLong();
+        private final long[] sampleTimes = new long[DEPTH_SAMPLES];
+        private final long[] sampleDepths = new long[DEPTH_SAMPLES];
+        private int samples;
+        private volatile long lastSample;
+
+        void forget(long lost) {
+            inFlight.addAndGet(-lost);
+            unmatched.addAndGet(lost);
+        }
+
+        void sampleDepth(long depth, long intervalNanos) {
+            final long now = System.nanoTime();
+            if (now - lastSample < intervalNanos)
+                return;
+            synchronized (this) {
+                if (now - lastSample < intervalNanos)
+                    return;
+                lastSample = now;
+                final int i = samples++ % DEPTH_SAMPLES;
+                sampleTimes[i] = now;
+                sampleDepths[i] = depth;
+            }
+        }
+
+        synchronized BoundaryStats snapshot(boolean reset) {
+            final int count = Math.min(samples, DEPTH_SAMPLES);
+            final List<long[]> depth = new ArrayList<long[]>(count);
+            for (int i = samples - count; i < samples; i++) {
+                depth.add(new long[] { sampleTimes[i % DEPTH_SAMPLES], sampleDepths[i % DEPTH_SAMPLES] });
+            }
+            final BoundaryStats s = new BoundaryStats(latency.snapshot(reset), inFlight.get(), reset ? crossThread.getAndSet(0) : crossThread.get(), reset ? unmatched.getAndSet(0)
+                    : unmatched.get(), depth);
+            if (reset)
+                samples = 0;
+            return s;
+        }
+    }
+
+    /**
+     * The handoff statistics of one boundary operator class.
+     */
+    public static final class BoundaryStats {
+        private final LatencyHistogram.Snapshot latency;
+        private final long inFlight;
+        private final long crossThread;
+        private final long unmatched;
+        private final List<long[]> depth;
+
+        BoundaryStats(LatencyHistogram.Snapshot latency, long inFlight, long crossThread, long unmatched, List<long[]> depth) {
+            this.latency = latency;
+            this.inFlight = inFlight;
+            this.crossThread = crossThread;
+            this.unmatched = unmatched;
+            this.depth = Collections.unmodifiableList(depth);
+        }
+
+        /**
+         * @return the nanoseconds between a value going in and coming out.
+         */
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the number of values currently between going in and coming out.
+         */
+        public long getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * @return how many of the values matched came out on another thread.
+         */
+        public long getCrossThread() {
+            return crossThread;
+        }
+
+        /**
+         * @return the values that went in but were forgotten before coming out.
+         */
+        public long getUnmatched() {
+            return unmatched;
+        }
+
+        /**
+         * @return pairs of {@link System#nanoTime()} and the number of values in flight at that
+         *         time, oldest first.
+         */
+        public List<long[]> getDepth() {
+            return depth;
+        }
+
+        @Override
+        public String toString() {
+            return "{\"latency\": " + latency + ", \"inFlight\": " + inFlight + ", \"crossThread\": " + crossThread + ", \"unmatched\": " + unmatched + ", \"depthSamples\": " + depth.size() + "}";
+        }
+    }
+}
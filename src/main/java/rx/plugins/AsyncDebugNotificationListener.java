@@ -0,0 +1,362 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import rx.Observable.Operator;
+import rx.functions.Func0;
+
+/**
+ * Wraps another {@link DebugNotificationListener} so that it runs on its own thread instead of the
+ * threads emitting the values. The emitting threads only fill in a slot of a bounded lock-free
+ * queue that a single thread drains in batches, calling the delegate for each event in order.
+ * <p>
+ * The slots are allocated once up front, an event copies the few fields of the notification a
+ * reusable onNext notification overwrites and the id of its thread into its slot, so the emitting
+ * thread doesn't allocate or take the shared sequence counter. The dispatch thread rebuilds the
+ * notification from the slot and numbers it, in the order the events were queued, before calling
+ * the delegate.
+ * <p>
+ * What happens when the queue is full is decided by the {@link OverflowPolicy}. Every start let
+ * into the queue also reserves a slot for its complete or error, so the delegate always sees them
+ * in pairs and an end never waits or is dropped whatever the policy. The dispatch thread pairs an
+ * end with the latest start of its thread that hasn't ended, as the events of a thread are always
+ * nested.
+ * <p>
+ * All of the events are replayed on the one dispatch thread, interleaved across the threads they
+ * happened on and some time after they happened, so the listeners that time or nest events on
+ * the calling thread, such as {@link LatencyHistogramDebugNotificationListener},
+ * {@link CompactDebugNotificationListener} or {@link SimpleDebugNotificationListener}, can't be
+ * the delegate and are rejected.
+ * <p>
+ * The delegate can't change the onNext values because it runs after they have been delivered, its
+ * {@link DebugNotificationListener#onNext(DebugNotification)} is still called with a copy of the
+ * notification if it is overridden. The value is only captured by the {@link ValueCapture} on the
+ * dispatch thread, so a mutable value is seen as it is then.
+ *
+ * @param <C>
+ *            the context type of the delegate.
+ */
+public class AsyncDebugNotificationListener<C> extends DebugNotificationListener<Object> {
+    public static enum OverflowPolicy {
+        /**
+         * Drop new events while the queue is full.
+         */
+        DROP,
+        /**
+         * Make the emitting thread wait until there is room in the queue.
+         */
+        BLOCK,
+        /**
+         * Once the queue is half full only queue one out of every sampleRate new events and drop
+         * the rest.
+         */
+        SAMPLE
+    }
+
+    private static final int START = 0;
+    private static final int ON_NEXT = 1;
+    private static final int COMPLETE = 2;
+    private static final int ERROR = 3;
+
+    /**
+     * The context returned for a start that was queued, a dropped start returns null so its end
+     * is dropped too.
+     */
+    private static final Object QUEUED = new Object();
+    /**
+     * Stand in for the null contexts of the delegate in {@link #contexts}.
+     */
+    private static final Object NO_CONTEXT = new Object();
+    /**
+     * Stands in for the context of a start the delegate threw an exception for.
+     */
+    private static final Object FAILED = new Object();
+
+    /**
+     * A slot of the queue, written by an emitting thread before it is published and read by the
+     * dispatch thread before it is released.
+     */
+    private static final class Event {
+        int type;
+        long threadId;
+        DebugNotification<?> n;
+        Operator<?, ?> from;
+        Object value;
+        Operator<?, ?> to;
+        Throwable e;
+    }
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final DebugNotificationListener<C> delegate;
+    private final boolean delegateOnNext;
+    private final MpscArrayQueue<Event> queue;
+    private final OverflowPolicy policy;
+    private final int sampleRate;
+    private final int batchSize;
+    private final AtomicInteger sampleCount = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    /**
+     * The slots of the queued events plus one for the end of every queued start that hasn't
+     * ended yet, never more than the capacity so there is always a slot for an end.
+     */
+    private final AtomicInteger reserved = new AtomicInteger();
+    /**
+     * The contexts of the delegate for the starts of each thread that haven't ended, innermost
+     * first. Only touched by the dispatch thread.
+     */
+    private final Map<Long, ArrayDeque<Object>> contexts = new HashMap<Long, ArrayDeque<Object>>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * @param delegate
+     *            the listener to call from the dispatch thread.
+     * @param capacity
+     *            the maximum number of events waiting to be dispatched.
+     * @param policy
+     *            what to do with new events when the queue is full.
+     * @param sampleRate
+     *            with {@link OverflowPolicy#SAMPLE} one out of this many events is kept once the
+     *            queue is half full.
+     */
+    public AsyncDebugNotificationListener(DebugNotificationListener<C> delegate, int capacity, OverflowPolicy policy, int sampleRate) {
+        if (delegate == null)
+            throw new IllegalArgumentException("The delegate listener must not be null");
+        if (delegate.needsCallingThread())
+            throw new IllegalArgumentException(delegate.getClass().getName() + " must be called on the threads the events happen on");
+        if (capacity < 2)
+            throw new IllegalArgumentException("capacity must be at least 2");
+        if (sampleRate < 1)
+            throw new IllegalArgumentException("sampleRate must be greater than zero");
+        this.delegate = delegate;
+        this.delegateOnNext = overrides(delegate, "onNext", DebugNotification.class);
+        this.queue = new MpscArrayQueue<Event>(capacity, new Func0<Event>() {
+            @Override
+            public Event call() {
+                return new Event();
+            }
+        });
+        this.policy = policy;
+        this.sampleRate = sampleRate;
+        this.batchSize = Math.min(256, queue.capacity());
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "RxDebugListener-" + threadCount.incrementAndGet());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public AsyncDebugNotificationListener(DebugNotificationListener<C> delegate, int capacity, OverflowPolicy policy) {
+        this(delegate, capacity, policy, 10);
+    }
+
+    @Override
+    public <T> T onNext(DebugNotification<T> n) {
+        if (delegateOnNext && admit(1))
+            enqueue(ON_NEXT, n, null);
+        return n.getValue();
+    }
+
+    @Override
+    public <T> Object start(DebugNotification<T> n) {
+        if (!admit(2))
+            return null;
+        enqueue(START, n, null);
+        return QUEUED;
+    }
+
+    @Override
+    public void complete(Object context) {
+        if (context != null)
+            enqueue(COMPLETE, null, null);
+    }
+
+    @Override
+    public void error(Object context, Throwable e) {
+        if (context != null)
+            enqueue(ERROR, null, e);
+    }
+
+    /**
+     * @return the number of events that were dropped because the queue was full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of events the delegate threw an exception for.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of events waiting to be dispatched.
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Stops the dispatch thread once the events already queued have been dispatched, events
+     * arriving afterwards are dropped.
+     *
+     * @throws InterruptedException
+     */
+    public void shutdown() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    /**
+     * Reserves the slots of a new event, two for a start so its end has one.
+     *
+     * @return false if the event is dropped.
+     */
+    private boolean admit(int slots) {
+        // the delegate may cause events itself, they can't wait on the thread that drains them.
+        if (!running || Thread.currentThread() == thread) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        final int capacity = queue.capacity();
+        if (policy == OverflowPolicy.SAMPLE && reserved.get() >= capacity / 2 && sampleCount.getAndIncrement() % sampleRate != 0) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        int spins = 0;
+        while (true) {
+            final int current = reserved.get();
+            if (current + slots <= capacity) {
+                if (reserved.compareAndSet(current, current + slots))
+                    return true;
+            } else if (policy != OverflowPolicy.BLOCK || !thread.isAlive()) {
+                dropped.incrementAndGet();
+                return false;
+            } else if (++spins < 100) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            }
+        }
+    }
+
+    /**
+     * Fills in a slot reserved by {@link #admit(int)}.
+     */
+    private void enqueue(int type, DebugNotification<?> n, Throwable e) {
+        long pos;
+        // the slot is reserved, it can only still be on its way back from the dispatch thread
+        while ((pos = queue.claim()) < 0) {
+            Thread.yield();
+        }
+        final Event event = queue.slot(pos);
+        event.type = type;
+        event.threadId = Thread.currentThread().getId();
+        event.n = n;
+        if (n != null) {
+            event.from = n.getFrom();
+            event.value = n.getValue();
+            event.to = n.getTo();
+        }
+        event.e = e;
+        queue.publish(pos);
+    }
+
+    private void dispatch() {
+        while (true) {
+            int size = 0;
+            Event event;
+            while (size < batchSize && (event = queue.peek()) != null) {
+                deliver(event);
+                event.n = null;
+                event.from = null;
+                event.value = null;
+                event.to = null;
+                event.e = null;
+                queue.release();
+                size++;
+            }
+            if (size > 0) {
+                reserved.addAndGet(-size);
+                continue;
+            }
+            if (!running)
+                return;
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliver(Event event) {
+        try {
+            switch (event.type) {
+            case START:
+                final ArrayDeque<Object> started = started(event.threadId);
+                Object context = FAILED;
+                try {
+                    context = delegate.start(replay(event));
+                } finally {
+                    started.push(context == null ? NO_CONTEXT : context);
+                }
+                break;
+            case ON_NEXT:
+                delegate.onNext(replay(event));
+                break;
+            default:
+                final ArrayDeque<Object> ended = contexts.get(event.threadId);
+                final Object end = ended.pop();
+                if (ended.isEmpty())
+                    contexts.remove(event.threadId);
+                if (end == FAILED)
+                    break;
+                if (event.type == COMPLETE)
+                    delegate.complete(end == NO_CONTEXT ? null : (C) end);
+                else
+                    delegate.error(end == NO_CONTEXT ? null : (C) end, event.e);
+            }
+        } catch (Throwable e) {
+            // a broken delegate must not stop the dispatching of the other events.
+            failed.incrementAndGet();
+        }
+    }
+
+    private ArrayDeque<Object> started(long threadId) {
+        ArrayDeque<Object> started = contexts.get(threadId);
+        if (started == null) {
+            started = new ArrayDeque<Object>();
+            contexts.put(threadId, started);
+        }
+        return started;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static DebugNotification<?> replay(Event event) {
+        return ((DebugNotification) event.n).replay(event.from, event.value, event.to, event.threadId);
+    }
+}
@@ -0,0 +1,374 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observer;
+import rx.exceptions.MissingBackpressureException;
+
+/**
+ * A {@link DebugNotificationListener} that matches the {@link DebugNotification.Kind#Request}s of
+ * each subscriber with the onNexts delivered to it to find the operators that either never apply
+ * backpressure, requesting {@link Long#MAX_VALUE}, or deliver more than was requested, which is
+ * what ends in a {@link MissingBackpressureException} or an unbounded buffer.
+ * <p>
+ * The demand of each subscriber is tracked with lock-free counters keyed by its
+ * {@link DebugRegistry} id. The subscribers are only referenced weakly, like the
+ * {@link LeakDetectorDebugNotificationListener} does, so this listener never keeps one alive. When
+ * a subscriber terminates or unsubscribes it is marked as ended and, if it was flagged, folded into
+ * a summary per pair of operators. The ended entry stays until the subscriber is collected so a
+ * late request doesn't start counting it again. A subscriber collected before it ended is folded
+ * in the same way. Memory is bounded by the number of subscribers still reachable.
+ */
+public class BackpressureDebugNotificationListener extends DebugNotificationListener<Object> {
+    private final ConcurrentMap<Integer, Demand> live = new ConcurrentHashMap<Integer, Demand>();
+    private final ReferenceQueue<Observer<?>> collected = new ReferenceQueue<Observer<?>>();
+    private final ConcurrentMap<String, Summary> flagged = new ConcurrentHashMap<String, Summary>();
+    private final long overrunThreshold;
+
+    /**
+     * @param overrunThreshold
+     *            how many values may be delivered beyond what was requested before a subscriber is
+     *            flagged.
+     */
+    public BackpressureDebugNotificationListener(long overrunThreshold) {
+        this.overrunThreshold = overrunThreshold;
+    }
+
+    public BackpressureDebugNotificationListener() {
+        this(0);
+    }
+
+    @Override
+    public <T> Object start(DebugNotification<T> n) {
+        final Observer<?> observer = n.getObserver();
+        if (observer == null)
+            return null;
+        switch (n.getKind()) {
+        case Request:
+            demand(n).request(n.getN());
+            break;
+        case OnNext:
+            demand(n).deliver();
+            break;
+        case OnCompleted:
+        case OnError:
+        case Unsubscribe:
+            final Demand d = live.get(n.getObserverId());
+            if (d != null)
+                end(d);
+            break;
+        default:
+            break;
+        }
+        return null;
+    }
+
+    private void end(Demand d) {
+        if (d.ended.compareAndSet(false, true) && d.isFlagged(overrunThreshold))
+            summary(d).add(d);
+    }
+
+    private void expunge() {
+        Reference<?> ref;
+        while ((ref = collected.poll()) != null) {
+            final Demand d = (Demand) ref;
+            if (live.remove(d.id, d))
+                end(d);
+        }
+    }
+
+    /**
+     * @return the current demand of every live subscriber.
+     */
+    public List<DemandSnapshot> getLive() {
+        expunge();
+        final List<DemandSnapshot> snapshot = new ArrayList<DemandSnapshot>(live.size());
+        for (Demand d : live.values()) {
+            if (!d.ended.get())
+                snapshot.add(d.snapshot(overrunThreshold));
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the live subscribers that are flagged.
+     */
+    public List<DemandSnapshot> getLiveFlagged() {
+        expunge();
+        final List<DemandSnapshot> snapshot = new ArrayList<DemandSnapshot>();
+        for (Demand d : live.values()) {
+            if (!d.ended.get() && d.isFlagged(overrunThreshold))
+                snapshot.add(d.snapshot(overrunThreshold));
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the subscribers that were flagged before they ended, summed by operator pair in the
+     *         form "from -> to".
+     */
+    public Map<String, Summary> getFlaggedByOperator() {
+        expunge();
+        return new HashMap<String, Summary>(flagged);
+    }
+
+    private Demand demand(DebugNotification<?> n) {
+        final int id = n.getObserverId();
+        Demand d = live.get(id);
+        if (d == null) {
+            expunge();
+            d = new Demand(id, n.getObserver(), n.getFrom(), n.getTo(), collected);
+            final Demand existing = live.putIfAbsent(id, d);
+            if (existing != null)
+                d = existing;
+        }
+        return d;
+    }
+
+    private Summary summary(Demand d) {
+        final String key = d.from + " -> " + d.to;
+        Summary s = flagged.get(key);
+        if (s == null) {
+            s = new Summary();
+            final Summary existing = flagged.putIfAbsent(key, s);
+            if (existing != null)
+                s = existing;
+        }
+        return s;
+    }
+
+    private static String name(Object o) {
+        return o == null ? null : o.getClass().getName();
+    }
+
+    private static void max(AtomicLong max, long value) {
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    private static final class Demand extends WeakReference<Observer<?>> {
+        final int id;
+        final String from;
+        final String to;
+        final AtomicBoolean ended = new AtomicBoolean();
+        final AtomicLong requested = new AtomicLong();
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong highWater = new AtomicLong();
+        final AtomicLong maxOverrun = new AtomicLong();
+        volatile boolean sawRequest;
+        volatile boolean unbounded;
+
+        Demand(int id, Observer<?> observer, Object from, Object to, ReferenceQueue<Observer<?>> queue) {
+            super(observer, queue);
+            this.id = id;
+            this.from = name(from);
+            this.to = name(to);
+        }
+
+        void request(long n) {
+            if (ended.get())
+                return;
+            sawRequest = true;
+            if (n == Long.MAX_VALUE) {
+                unbounded = true;
+                return;
+            }
+            long r;
+            long u;
+            do {
+                r = requested.get();
+                u = r + n;
+                if (u < 0)
+                    u = Long.MAX_VALUE;
+            } while (!requested.compareAndSet(r, u));
+            max(highWater, u - delivered.get());
+        }
+
+        void deliver() {
+            if (ended.get())
+                return;
+            final long d = delivered.incrementAndGet();
+            if (sawRequest && !unbounded)
+                max(maxOverrun, d - requested.get());
+        }
+
+        boolean isFlagged(long overrunThreshold) {
+            return unbounded || maxOverrun.get() > overrunThreshold;
+        }
+
+        DemandSnapshot snapshot(long overrunThreshold) {
+            final long r = requested.get();
+            final long d = delivered.get();
+            final DebugRegistry.Descriptor observer = DebugRegistry.getInstance().get(id);
+            return new DemandSnapshot(observer == null ? null : observer.getName(), from, to, r, d, unbounded ? Long.MAX_VALUE : r - d, highWater.get(), maxOverrun.get(), unbounded, sawRequest, isFlagged(overrunThreshold));
+        }
+    }
+
+    /**
+     * The demand of one subscriber.
+     */
+    public static final class DemandSnapshot {
+        private final String observer;
+        private final String from;
+        private final String to;
+        private final long requested;
+        private final long delivered;
+        private final long outstanding;
+        private final long highWater;
+        private final long maxOverrun;
+        private final boolean unbounded;
+        private final boolean sawRequest;
+        private final boolean flagged;
+
+        DemandSnapshot(String observer, String from, String to, long requested, long delivered, long outstanding, long highWater, long maxOverrun, boolean unbounded, boolean sawRequest,
+                boolean flagged) {
+            this.observer = observer;
+            this.from = from;
+            this.to = to;
+            this.requested = requested;
+            this.delivered = delivered;
+            this.outstanding = outstanding;
+            this.highWater = highWater;
+            this.maxOverrun = maxOverrun;
+            this.unbounded = unbounded;
+            this.sawRequest = sawRequest;
+            this.flagged = flagged;
+        }
+
+        /**
+         * @return the name of the subscriber or null if it has been collected.
+         */
+        public String getObserver() {
+            return observer;
+        }
+
+        public String getFrom() {
+            return from;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        /**
+         * @return the sum of the bounded requests.
+         */
+        public long getRequested() {
+            return requested;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * @return requested minus delivered, negative when more was delivered than requested and
+         *         {@link Long#MAX_VALUE} when unbounded.
+         */
+        public long getOutstanding() {
+            return outstanding;
+        }
+
+        /**
+         * @return the most that was ever outstanding.
+         */
+        public long getHighWater() {
+            return highWater;
+        }
+
+        /**
+         * @return the most that was ever delivered beyond what was requested.
+         */
+        public long getMaxOverrun() {
+            return maxOverrun;
+        }
+
+        public boolean isUnbounded() {
+            return unbounded;
+        }
+
+        /**
+         * @return false when no request was ever seen, the subscriber isn't using backpressure.
+         */
+        public boolean isSawRequest() {
+            return sawRequest;
+        }
+
+        public boolean isFlagged() {
+            return flagged;
+        }
+
+        @Override
+        public String toString() {
+            return "{\"observer\": " + DebugNotification.quote(observer) + ", \"from\": " + (from == null ? "null" : "\"" + from + "\"") + ", \"to\": " + (to == null ? "null" : "\"" + to + "\"") + ", \"requested\": "
+                    + requested + ", \"delivered\": " + delivered + ", \"outstanding\": " + outstanding + ", \"highWater\": " + highWater + ", \"maxOverrun\": " + maxOverrun + ", \"unbounded\": "
+                    + unbounded + ", \"sawRequest\": " + sawRequest + "}";
+        }
+    }
+
+    /**
+     * The subscribers of one pair of operators that were flagged before they ended.
+     */
+    public static final class Summary {
+        private final AtomicLong subscribers = new AtomicLong();
+        private final AtomicLong unbounded = new AtomicLong();
+        private final AtomicLong maxOverrun = new AtomicLong();
+        private final AtomicLong maxHighWater = new AtomicLong();
+
+        void add(Demand d) {
+            subscribers.incrementAndGet();
+            if (d.unbounded)
+                unbounded.incrementAndGet();
+            max(maxOverrun, d.maxOverrun.get());
+            max(maxHighWater, d.highWater.get());
+        }
+
+        public long getSubscribers() {
+            return subscribers.get();
+        }
+
+        /**
+         * @return how many of the subscribers requested {@link Long#MAX_VALUE}.
+         */
+        public long getUnbounded() {
+            return unbounded.get();
+        }
+
+        public long getMaxOverrun() {
+            return maxOverrun.get();
+        }
+
+        public long getMaxHighWater() {
+            return maxHighWater.get();
+        }
+
+        @Override
+        public String toString() {
+            return "{\"subscribers\": " + subscribers + ", \"unbounded\": " + unbounded + ", \"maxOverrun\": " + maxOverrun + ", \"maxHighWater\": " + maxHighWater + "}";
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+/**
+ * A {@link DebugNotificationListener} that records every event into a {@link CompactEventStore}.
+ * Nothing is allocated per event, the context returned from {@link #start(DebugNotification)} is a
+ * frame reused by the thread.
+ * <p>
+ * The subscriber and operators are identified by their {@link DebugRegistry} ids, 0 when there is
+ * none.
+ */
+public class CompactDebugNotificationListener extends DebugNotificationListener<Object> {
+    private static final class EventFrame extends FrameStack.Frame {
+        long seq;
+    }
+
+    private final FrameStack<EventFrame> frames = new FrameStack<EventFrame>() {
+        @Override
+        protected EventFrame newFrame() {
+            return new EventFrame();
+        }
+    };
+
+    private final CompactEventStore store;
+
+    public CompactDebugNotificationListener(CompactEventStore store) {
+        if (store == null)
+            throw new IllegalArgumentException("The store must not be null");
+        this.store = store;
+    }
+
+    @Override
+    boolean needsCallingThread() {
+        return true;
+    }
+
+    @Override
+    public <T> Object start(DebugNotification<T> n) {
+        // the capture policy may copy or digest the value so it is only applied if it is kept
+        final Object value = store.isKeepingValues() ? n.getCapturedValue() : null;
+        final long seq = store.start(n.getKind(), Thread.currentThread().getId(), System.nanoTime(), n.getN(), n.getObserverId(), n.getFromId(), n.getToId(), value);
+        final EventFrame frame = frames.push();
+        frame.seq = seq;
+        return frame;
+    }
+
+    @Override
+    public void complete(Object context) {
+        final EventFrame frame = (EventFrame) context;
+        if (frames.pop(frame))
+            store.end(frame.seq, System.nanoTime(), null);
+    }
+
+    @Override
+    public void error(Object context, Throwable e) {
+        final EventFrame frame = (EventFrame) context;
+        if (frames.pop(frame))
+            store.end(frame.seq, System.nanoTime(), e);
+    }
+
+    public CompactEventStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the number of events stored without an end because an event they were nested in
+     *         ended first or their end came on another thread.
+     */
+    public long getLostEnds() {
+        return frames.getDiscarded() + frames.getUnmatched();
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import rx.plugins.DebugNotification.Kind;
+
+/**
+ * Fixed size storage of events kept as columns of primitives, one slot per event, instead of an
+ * object graph per event. Once the capacity is reached the oldest events are overwritten.
+ * <p>
+ * The columns can be kept off the heap with {@link ByteBuffer#allocateDirect(int)} so that a long
+ * capture adds nothing for the garbage collector to scan. The onNext values and exceptions are
+ * only kept when asked for because they pin arbitrary object graphs.
+ * <p>
+ * Any number of threads can record at the same time without locking, {@link #getSnapshot()}
+ * doesn't block them. Writers claim a slot before writing its columns so only the writers of the
+ * same slot a whole lap apart wait for each other, the older event is then dropped as overwritten.
+ */
+public class CompactEventStore {
+    private static final Kind[] KINDS = Kind.values();
+
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+    private static final long EMPTY = -2;
+    private static final long WRITING = -1;
+
+    /**
+     * The sequence number of the event in each slot, {@link #WRITING} while a writer owns the slot
+     * and {@link #EMPTY} before the first write.
+     */
+    private final AtomicLongArray sequences;
+    private final IntBuffer kinds;
+    private final LongBuffer threadIds;
+    private final LongBuffer starts;
+    private final LongBuffer ends;
+    /**
+     * The n of each {@link Kind#Request}.
+     */
+    private final LongBuffer requested;
+    private final IntBuffer subscriberIds;
+    private final IntBuffer fromIds;
+    private final IntBuffer toIds;
+    private final AtomicReferenceArray<Object> values;
+    private final AtomicReferenceArray<Throwable> errors;
+
+    /**
+     * @param capacity
+     *            the number of events to keep, rounded up to the next power of two.
+     * @param offHeap
+     *            keep the columns in direct buffers outside of the java heap.
+     * @param keepValues
+     *            keep a reference to the onNext values and exceptions of the events.
+     */
+    public CompactEventStore(int capacity, boolean offHeap, boolean keepValues) {
+        if (capacity < 1 || capacity > 1 << 26)
+            throw new IllegalArgumentException("capacity must be between 1 and 2^26");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, EMPTY);
+        }
+        this.kinds = ints(size, offHeap);
+        this.threadIds = longs(size, offHeap);
+        this.starts = longs(size, offHeap);
+        this.ends = longs(size, offHeap);
+        this.requested = longs(size, offHeap);
+        this.subscriberIds = ints(size, offHeap);
+        this.fromIds = ints(size, offHeap);
+        this.toIds = ints(size, offHeap);
+        this.values = keepValues ? new AtomicReferenceArray<Object>(size) : null;
+        this.errors = keepValues ? new AtomicReferenceArray<Throwable>(size) : null;
+    }
+
+    private static LongBuffer longs(int size, boolean offHeap) {
+        return offHeap ? ByteBuffer.allocateDirect(size * 8).order(ByteOrder.nativeOrder()).asLongBuffer() : LongBuffer.allocate(size);
+    }
+
+    private static IntBuffer ints(int size, boolean offHeap) {
+        return offHeap ? ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asIntBuffer() : IntBuffer.allocate(size);
+    }
+
+    /**
+     * Stores the start of an event.
+     *
+     * @return the sequence number to pass to {@link #end(long, long, Throwable)}.
+     */
+    public long start(Kind kind, long threadId, long start, long n, int subscriberId, int fromId, int toId, Object value) {
+        final long seq = cursor.getAndIncrement();
+        final int i = (int) seq & mask;
+        if (!claim(i, seq))
+            return seq;
+        kinds.put(i, kind.ordinal());
+        threadIds.put(i, threadId);
+        starts.put(i, start);
+        ends.put(i, -1);
+        requested.put(i, n);
+        subscriberIds.put(i, subscriberId);
+        fromIds.put(i, fromId);
+        toIds.put(i, toId);
+        if (values != null) {
+            values.lazySet(i, value);
+            errors.lazySet(i, null);
+        }
+        sequences.lazySet(i, seq);
+        return seq;
+    }
+
+    /**
+     * Stores the end of an event unless it has already been overwritten.
+     *
+     * @param e
+     *            the exception thrown by the event or null.
+     */
+    public void end(long seq, long end, Throwable e) {
+        final int i = (int) seq & mask;
+        // own the slot while writing so a writer of the next lap can't interleave its columns
+        if (!sequences.compareAndSet(i, seq, WRITING))
+            return;
+        ends.put(i, end);
+        if (e != null && errors != null)
+            errors.lazySet(i, e);
+        sequences.lazySet(i, seq);
+    }
+
+    /**
+     * Takes the slot for the event, waiting for a writer that is still in it.
+     *
+     * @return false if a newer event already has the slot, the event then counts as overwritten.
+     */
+    private boolean claim(int i, long seq) {
+        for (;;) {
+            final long current = sequences.get(i);
+            if (current >= seq)
+                return false;
+            if (current != WRITING && sequences.compareAndSet(i, current, WRITING))
+                return true;
+            Thread.yield();
+        }
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return true if the values and errors passed in are kept, false if they are dropped.
+     */
+    public boolean isKeepingValues() {
+        return values != null;
+    }
+
+    /**
+     * @return the total number of events seen, including the ones that were overwritten.
+     */
+    public long getCount() {
+        return cursor.get();
+    }
+
+    /**
+     * Copies the events currently stored, oldest first. This is the only place objects are made
+     * for events. Slots that are overwritten while the copy is being made are left out.
+     *
+     * @return
+     */
+    public List<Event> getSnapshot() {
+        final long end = cursor.get();
+        final long begin = Math.max(0, end - (mask + 1));
+        final List<Event> snapshot = new ArrayList<Event>((int) (end - begin));
+        for (long seq = begin; seq < end; seq++) {
+            final int i = (int) seq & mask;
+            if (sequences.get(i) != seq)
+                continue;
+            final Event event = new Event(seq, KINDS[kinds.get(i)], threadIds.get(i), starts.get(i), ends.get(i), requested.get(i), subscriberIds.get(i), fromIds.get(i), toIds.get(i), values == null ? null
+                    : values.get(i), errors == null ? null : errors.get(i));
+            // a volatile read doesn't keep the plain column reads above from moving after it, a
+            // compare and set does, and only succeeds if no writer took the slot in the meantime
+            if (sequences.compareAndSet(i, seq, seq))
+                snapshot.add(event);
+        }
+        return snapshot;
+    }
+
+    /**
+     * An immutable copy of one stored event.
+     */
+    public static final class Event {
+        private final long sequence;
+        private final Kind kind;
+        private final long threadId;
+        private final long start;
+        private final long end;
+        private final long n;
+        private final int subscriberId;
+        private final int fromId;
+        private final int toId;
+        private final Object value;
+        private final Throwable error;
+
+        Event(long sequence, Kind kind, long threadId, long start, long end, long n, int subscriberId, int fromId, int toId, Object value, Throwable error) {
+            this.sequence = sequence;
+            this.kind = kind;
+            this.threadId = threadId;
+            this.start = start;
+            this.end = end;
+            this.n = n;
+            this.subscriberId = subscriberId;
+            this.fromId = fromId;
+            this.toId = toId;
+            this.value = value;
+            this.error = error;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return the {@link System#nanoTime()} the event ended or -1 if it is still running.
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        public long getN() {
+            return n;
+        }
+
+        public int getSubscriberId() {
+            return subscriberId;
+        }
+
+        public int getFromId() {
+            return fromId;
+        }
+
+        public int getToId() {
+            return toId;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder str = new StringBuilder("{");
+            str.append("\"seq\": ").append(sequence);
+            if (end != -1)
+                str.append(", \"ns_duration\": ").append(end - start);
+            str.append(", \"threadId\": ").append(threadId);
+            str.append(", \"type\": \"").append(kind).append("\"");
+            if (kind == Kind.Request)
+                str.append(", \"n\": ").append(n);
+            str.append(", \"subscriber\": ").append(subscriberId);
+            str.append(", \"from\": ").append(fromId);
+            str.append(", \"to\": ").append(toId);
+            if (value != null)
+                str.append(", \"value\": ").append(DebugNotification.quote(value));
+            if (error != null)
+                str.append(", \"exception\": ").append(DebugNotification.quote(error));
+            str.append("}");
+            return str.toString();
+        }
+    }
+}
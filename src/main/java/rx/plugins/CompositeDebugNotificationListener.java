@@ -0,0 +1,193 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link DebugNotificationListener} that passes every notification on to several listeners so
+ * that metrics, leak detection and a trace recorder can all be installed in the one
+ * {@link DebugHook}.
+ * <p>
+ * Which methods each listener overrides is looked up once so a listener that keeps the default
+ * {@link #onNext(DebugNotification)}, {@link #complete(Object)} or
+ * {@link #error(Object, Throwable)} is never called for it. The contexts returned by the
+ * listeners are kept in a per thread frame that is reused instead of an array allocated per event,
+ * and only for the listeners that take their context back.
+ * <p>
+ * The listeners are called in the order given. When more than one replaces the onNext values the
+ * {@link #onNext(DebugNotification)} of each sees the value as returned by the ones before it, in
+ * a copy of the notification so the one passed in is never changed. {@link #start(DebugNotification)}
+ * is called with that notification as it was emitted, so every listener sees the original value
+ * there, as a single listener does, while the subscriber gets the value the last one returned.
+ */
+public class CompositeDebugNotificationListener extends DebugNotificationListener<Object> {
+    private final class ContextFrame extends FrameStack.Frame {
+        final Object[] contexts = new Object[contextual.length];
+    }
+
+    private final FrameStack<ContextFrame> frames = new FrameStack<ContextFrame>() {
+        @Override
+        protected ContextFrame newFrame() {
+            return new ContextFrame();
+        }
+    };
+
+    private final List<DebugNotificationListener<?>> listeners;
+    private final DebugNotificationListener<Object>[] onNext;
+    private final DebugNotificationListener<Object>[] start;
+    /**
+     * The listeners that get their context back in complete or error, the slot of each in the
+     * frame is its index here.
+     */
+    private final DebugNotificationListener<Object>[] contextual;
+    /**
+     * For each listener in start the slot to keep its context in or -1.
+     */
+    private final int[] startSlots;
+    private final boolean[] completes;
+    private final boolean[] errors;
+
+    public CompositeDebugNotificationListener(DebugNotificationListener<?>... listeners) {
+        this(Arrays.asList(listeners));
+    }
+
+    @SuppressWarnings("unchecked")
+    public CompositeDebugNotificationListener(List<? extends DebugNotificationListener<?>> listeners) {
+        this.listeners = Collections.unmodifiableList(new ArrayList<DebugNotificationListener<?>>(listeners));
+        final List<DebugNotificationListener<Object>> onNext = new ArrayList<DebugNotificationListener<Object>>();
+        final List<DebugNotificationListener<Object>> start = new ArrayList<DebugNotificationListener<Object>>();
+        final List<DebugNotificationListener<Object>> contextual = new ArrayList<DebugNotificationListener<Object>>();
+        for (DebugNotificationListener<?> l : this.listeners) {
+            if (l == null)
+                throw new IllegalArgumentException("The listeners must not be null");
+            final DebugNotificationListener<Object> listener = (DebugNotificationListener<Object>) l;
+            if (overrides(listener, "onNext", DebugNotification.class))
+                onNext.add(listener);
+            if (overrides(listener, "start", DebugNotification.class))
+                start.add(listener);
+            if (overrides(listener, "complete", Object.class) || overrides(listener, "error", Object.class, Throwable.class))
+                contextual.add(listener);
+        }
+        this.onNext = toArray(onNext);
+        this.start = toArray(start);
+        this.contextual = toArray(contextual);
+        this.startSlots = new int[this.start.length];
+        for (int i = 0; i < this.start.length; i++) {
+            startSlots[i] = contextual.indexOf(this.start[i]);
+        }
+        this.completes = new boolean[this.contextual.length];
+        this.errors = new boolean[this.contextual.length];
+        for (int i = 0; i < this.contextual.length; i++) {
+            completes[i] = overrides(this.contextual[i], "complete", Object.class);
+            errors[i] = overrides(this.contextual[i], "error", Object.class, Throwable.class);
+        }
+    }
+
+    /**
+     * An array of a generic type can't be made, the array made holds wildcards but only ever
+     * listeners cast to Object contexts so the cast back is safe.
+     */
+    @SuppressWarnings("unchecked")
+    private static DebugNotificationListener<Object>[] toArray(List<DebugNotificationListener<Object>> listeners) {
+        return (DebugNotificationListener<Object>[]) listeners.toArray(new DebugNotificationListener<?>[listeners.size()]);
+    }
+
+    /**
+     * @return the listeners in the order they are called.
+     */
+    public List<DebugNotificationListener<?>> getListeners() {
+        return listeners;
+    }
+
+    @Override
+    public <T> T onNext(DebugNotification<T> n) {
+        final DebugNotificationListener<Object>[] onNext = this.onNext;
+        if (onNext.length == 0)
+            return n.getValue();
+        DebugNotification<T> chained = n;
+        T value = onNext[0].onNext(n);
+        for (int i = 1; i < onNext.length; i++) {
+            if (value != chained.getValue())
+                chained = n.withValue(value);
+            value = onNext[i].onNext(chained);
+        }
+        return value;
+    }
+
+    @Override
+    boolean needsCallingThread() {
+        if (contextual.length > 0)
+            return true;
+        for (DebugNotificationListener<?> l : listeners) {
+            if (l.needsCallingThread())
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public <T> Object start(DebugNotification<T> n) {
+        if (contextual.length == 0) {
+            for (DebugNotificationListener<Object> l : start) {
+                l.start(n);
+            }
+            return null;
+        }
+        final ContextFrame frame = frames.push();
+        final Object[] contexts = frame.contexts;
+        for (int i = 0; i < start.length; i++) {
+            final Object context = start[i].start(n);
+            final int slot = startSlots[i];
+            if (slot >= 0)
+                contexts[slot] = context;
+        }
+        return frame;
+    }
+
+    @Override
+    public void complete(Object context) {
+        if (context == null)
+            return;
+        final ContextFrame frame = (ContextFrame) context;
+        // the frame stays intact until this thread starts another event
+        if (!frames.pop(frame))
+            return;
+        final Object[] contexts = frame.contexts;
+        for (int i = 0; i < contextual.length; i++) {
+            final Object c = contexts[i];
+            contexts[i] = null;
+            if (completes[i])
+                contextual[i].complete(c);
+        }
+    }
+
+    @Override
+    public void error(Object context, Throwable e) {
+        if (context == null)
+            return;
+        final ContextFrame frame = (ContextFrame) context;
+        if (!frames.pop(frame))
+            return;
+        final Object[] contexts = frame.contexts;
+        for (int i = 0; i < contextual.length; i++) {
+            final Object c = contexts[i];
+            contexts[i] = null;
+            if (errors[i])
+                contextual[i].error(c, e);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A {@link DebugNotificationListener} that only counts the events of each operator: the onNexts it
+ * emitted, the total it was requested and how many times it completed or failed. The events are
+ * counted against the operator they come from, the sources at the start of a chain are counted
+ * together under a null operator.
+ * <p>
+ * The counters are found by the {@link DebugRegistry} id of the operator, which the
+ * {@link rx.operators.DebugSubscriber} resolves once, in a table that is read without locking or
+ * hashing objects. Operators of the same class assembled at the same {@link AssemblySite} share
+ * their counters. The counters are striped by thread so counting costs no allocation and rarely
+ * contends.
+ * <p>
+ * Poll {@link #snapshot()} for the totals by operator class or {@link #snapshotBySite()} for the
+ * totals by assembly site from a monitoring thread, each gives the rates since its previous poll.
+ */
+public class CountingDebugNotificationListener extends DebugNotificationListener<Object> {
+    private static final class Counters {
+        final String className;
+        final AssemblySite site;
+        /**
+         * Indexed by {@link KindCounts}.
+         */
+        final StripedCounter[] counts = new StripedCounter[KindCounts.SIZE];
+
+        Counters(String className, AssemblySite site) {
+            this.className = className;
+            this.site = site;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new StripedCounter();
+            }
+        }
+    }
+
+    /**
+     * The previous snapshot of one kind and when it was taken.
+     */
+    private static final class Poll {
+        final boolean bySite;
+        Map<String, Counts> previous = new HashMap<String, Counts>();
+        long time = System.nanoTime();
+
+        Poll(boolean bySite) {
+            this.bySite = bySite;
+        }
+    }
+
+    private final Counters sources = new Counters(null, null);
+    private final IdTable<Counters> byId = new IdTable<Counters>();
+    private final Map<SiteKey, Counters> byKey = new HashMap<SiteKey, Counters>();
+    private final Poll byClassPoll = new Poll(false);
+    private final Poll bySitePoll = new Poll(true);
+
+    @Override
+    public <T> Object start(DebugNotification<T> n) {
+        final int i = KindCounts.index(n);
+        if (i >= 0)
+            counters(n).counts[i].add(KindCounts.amount(n, i));
+        return null;
+    }
+
+    /**
+     * @return the counts of every operator class seen along with the rate per second of each
+     *         since the previous call.
+     */
+    public Map<String, Counts> snapshot() {
+        return snapshot(byClassPoll);
+    }
+
+    /**
+     * @return the counts of every {@link AssemblySite} seen, named by
+     *         {@link AssemblySite#toString()}, along with the rate per second of each since the
+     *         previous call. Operators without a site are counted under their class name.
+     */
+    public Map<String, Counts> snapshotBySite() {
+        return snapshot(bySitePoll);
+    }
+
+    private synchronized Map<String, Counts> snapshot(Poll poll) {
+        final long now = System.nanoTime();
+        final double seconds = (now - poll.time) / 1e9;
+        final Map<String, long[]> totals = new HashMap<String, long[]>();
+        add(totals, null, sources);
+        for (Counters c : byKey.values()) {
+            add(totals, poll.bySite && c.site != null ? c.site.toString() : c.className, c);
+        }
+        final Map<String, Counts> snapshot = new HashMap<String, Counts>();
+        for (Entry<String, long[]> e : totals.entrySet()) {
+            final String name = e.getKey();
+            final long[] t = e.getValue();
+            final Counts previous = poll.previous.get(name);
+            snapshot.put(name, new Counts(t[KindCounts.ON_NEXT], t[KindCounts.REQUESTED], t[KindCounts.UNBOUNDED_REQUESTS], t[KindCounts.COMPLETED], t[KindCounts.ERRORS], previous, seconds));
+        }
+        poll.previous = snapshot;
+        poll.time = now;
+        return snapshot;
+    }
+
+    private static void add(Map<String, long[]> totals, String name, Counters c) {
+        long[] t = totals.get(name);
+        if (t == null)
+            totals.put(name, t = new long[KindCounts.SIZE]);
+        for (int i = 0; i < t.length; i++) {
+            t[i] += c.counts[i].sum();
+        }
+    }
+
+    private Counters counters(DebugNotification<?> n) {
+        final int id = n.getFromId();
+        if (id == 0)
+            return sources;
+        final Counters c = byId.get(id);
+        return c != null ? c : register(id, n);
+    }
+
+    private synchronized Counters register(int id, DebugNotification<?> n) {
+        final SiteKey key = new SiteKey(n.getFrom().getClass(), n.getAssemblySite());
+        Counters c = byKey.get(key);
+        if (c == null)
+            byKey.put(key, c = new Counters(key.type.getName(), key.site));
+        return byId.putIfAbsent(id, c);
+    }
+
+    private static final class SiteKey {
+        final Class<?> type;
+        final AssemblySite site;
+
+        SiteKey(Class<?> type, AssemblySite site) {
+            this.type = type;
+            this.site = site;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SiteKey))
+                return false;
+            final SiteKey other = (SiteKey) obj;
+            return type == other.type && site == other.site;
+        }
+
+        @Override
+        public int hashCode() {
+            return type.hashCode() * 31 + System.identityHashCode(site);
+        }
+    }
+
+    /**
+     * The totals for one operator class or assembly site and their rates per second over the period since the
+     * previous snapshot.
+     */
+    public static final class Counts {
+        private final long onNext;
+        private final long requested;
+        private final long unboundedRequests;
+        private final long completed;
+        private final long errors;
+        private final double onNextRate;
+        private final double requestedRate;
+        private final double errorRate;
+
+        Counts(long onNext, long requested, long unboundedRequests, long completed, long errors, Counts previous, double seconds) {
+            this.onNext = onNext;
+            this.requested = requested;
+            this.unboundedRequests = unboundedRequests;
+            this.completed = completed;
+            this.errors = errors;
+            final boolean rates = previous != null && seconds > 0;
+            this.onNextRate = rates ? (onNext - previous.onNext) / seconds : 0;
+            this.requestedRate = rates ? (requested - previous.requested) / seconds : 0;
+            this.errorRate = rates ? (errors - previous.errors) / seconds : 0;
+        }
+
+        public long getOnNext() {
+            return onNext;
+        }
+
+        /**
+         * @return the sum of all of the bounded requests.
+         */
+        public long getRequested() {
+            return requested;
+        }
+
+        /**
+         * @return the number of requests for {@link Long#MAX_VALUE}.
+         */
+        public long getUnboundedRequests() {
+            return unboundedRequests;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return onNexts per second, 0 for the first snapshot.
+         */
+        public double getOnNextRate() {
+            return onNextRate;
+        }
+
+        /**
+         * @return values requested per second, 0 for the first snapshot.
+         */
+        public double getRequestedRate() {
+            return requestedRate;
+        }
+
+        /**
+         * @return errors per second, 0 for the first snapshot.
+         */
+        public double getErrorRate() {
+            return errorRate;
+        }
+
+        @Override
+        public String toString() {
+            return "{\"onNext\": " + onNext + ", \"requested\": " + requested + ", \"unboundedRequests\": " + unboundedRequests + ", \"completed\": " + completed + ", \"errors\": " + errors
+                    + ", \"onNextRate\": " + onNextRate + ", \"requestedRate\": " + requestedRate + ", \"errorRate\": " + errorRate + "}";
+        }
+    }
+}
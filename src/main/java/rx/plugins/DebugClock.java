@@ -0,0 +1,39 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+/**
+ * The source of time of the listeners that bucket events by when they happened, so tests can move
+ * time on instead of sleeping.
+ */
+public abstract class DebugClock {
+    private static final DebugClock SYSTEM = new DebugClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * @return the current time in nanoseconds with the same meaning as {@link System#nanoTime()},
+     *         only the difference between two calls means anything.
+     */
+    public abstract long nanoTime();
+
+    /**
+     * @return the clock of {@link System#nanoTime()}.
+     */
+    public static DebugClock system() {
+        return SYSTEM;
+    }
+}
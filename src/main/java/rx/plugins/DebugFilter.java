@@ -0,0 +1,139 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import rx.Observable.OnSubscribe;
+import rx.Observable.Operator;
+import rx.plugins.DebugNotification.Kind;
+
+/**
+ * Decides which {@link Operator}s and {@link OnSubscribe}s the {@link DebugHook} wraps and which
+ * {@link Kind}s of notification the wrappers send to the listener. The decision for a class is made
+ * once and cached by the hook, the links that aren't accepted get no DebugSubscriber at all.
+ * <p>
+ * The {@link OnSubscribe}s and the operators are both filtered when the chain is subscribed, an
+ * {@link OnSubscribe} is always wrapped by {@link rx.Observable#create} but only adds a
+ * DebugSubscriber if it is accepted then. A new filter therefore applies to the next subscribe of
+ * the {@link rx.Observable}s already created too.
+ *
+ * @see DebugHook#setFilter(DebugFilter)
+ */
+public abstract class DebugFilter {
+    static final int ALL_KINDS = (1 << Kind.values().length) - 1;
+
+    private static final DebugFilter ALL = new DebugFilter() {
+        @Override
+        public boolean accept(Class<?> type) {
+            return true;
+        }
+    };
+
+    /**
+     * @param type
+     *            the class of an {@link Operator} or an {@link OnSubscribe}.
+     * @return true if it should be traced.
+     */
+    public abstract boolean accept(Class<?> type);
+
+    /**
+     * @return a bit set with the bit of {@link Kind#ordinal()} set for each kind of notification
+     *         to send to the listener.
+     */
+    public int getKindMask() {
+        return ALL_KINDS;
+    }
+
+    /**
+     * @return a filter that accepts the same classes as this one but only sends the kinds given.
+     */
+    public DebugFilter withKinds(Kind... kinds) {
+        int mask = 0;
+        for (Kind kind : kinds) {
+            mask |= 1 << kind.ordinal();
+        }
+        final int kindMask = mask;
+        final DebugFilter classes = this;
+        return new DebugFilter() {
+            @Override
+            public boolean accept(Class<?> type) {
+                return classes.accept(type);
+            }
+
+            @Override
+            public int getKindMask() {
+                return kindMask;
+            }
+        };
+    }
+
+    /**
+     * @return a filter accepting the classes accepted by either filter and the kinds of both.
+     */
+    public DebugFilter or(final DebugFilter other) {
+        final DebugFilter self = this;
+        final int kindMask = getKindMask() | other.getKindMask();
+        return new DebugFilter() {
+            @Override
+            public boolean accept(Class<?> type) {
+                return self.accept(type) || other.accept(type);
+            }
+
+            @Override
+            public int getKindMask() {
+                return kindMask;
+            }
+        };
+    }
+
+    /**
+     * @return a filter that traces everything, this is the default.
+     */
+    public static DebugFilter all() {
+        return ALL;
+    }
+
+    /**
+     * @return a filter accepting the given classes and their subclasses.
+     */
+    public static DebugFilter classes(final Class<?>... types) {
+        return new DebugFilter() {
+            @Override
+            public boolean accept(Class<?> type) {
+                for (Class<?> t : types) {
+                    if (t.isAssignableFrom(type))
+                        return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param prefixes
+     *            such as "com.example." or "rx.internal.operators.OperatorObserveOn".
+     * @return a filter accepting the classes whose names start with any of the prefixes.
+     */
+    public static DebugFilter packages(final String... prefixes) {
+        return new DebugFilter() {
+            @Override
+            public boolean accept(Class<?> type) {
+                final String name = type.getName();
+                for (String prefix : prefixes) {
+                    if (name.startsWith(prefix))
+                        return true;
+                }
+                return false;
+            }
+        };
+    }
+}
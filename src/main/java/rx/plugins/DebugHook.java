@@ -12,6 +12,9 @@
  */
 package rx.plugins;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import rx.Observable;
 import rx.Observable.OnSubscribe;
 import rx.Observable.Operator;
@@ -19,6 +22,7 @@ import rx.Subscriber;
 import rx.Subscription;
 import rx.exceptions.Exceptions;
 import rx.operators.DebugSubscriber;
+import rx.plugins.DebugNotification.Kind;
 
 /**
  * Implements hooks into the {@link Observable} chain to emit a detailed account of all the events
@@ -28,6 +32,27 @@ import rx.operators.DebugSubscriber;
  */
 public class DebugHook<C> extends RxJavaObservableExecutionHook {
     private DebugNotificationListener<C> listener;
+    private boolean enabled = true;
+    /**
+     * The listener while enabled and null while disabled so the hot path only does one volatile
+     * read to know both.
+     */
+    private volatile DebugNotificationListener<C> active;
+    private volatile boolean reuseOnNextNotifications;
+    private volatile DebugSampler sampler = DebugSampler.all();
+    private volatile AssemblyTracker assemblyTracker;
+    private volatile ValueCapture valueCapture = ValueCapture.value();
+    private volatile Filtering filtering = new Filtering(DebugFilter.all());
+    /**
+     * Whether the subscribe being run on this thread was sampled, the operators of the chain are
+     * lifted and the source {@link OnSubscribe} called from within {@link #onSubscribeStart}.
+     */
+    private final ThreadLocal<boolean[]> tracing = new ThreadLocal<boolean[]>() {
+        @Override
+        protected boolean[] initialValue() {
+            return new boolean[] { true };
+        }
+    };
 
     /**
      * Creates a new instance of the DebugHook RxJava plug-in that can be passed into
@@ -41,6 +66,156 @@ public class DebugHook<C> extends RxJavaObservableExecutionHook {
         if (listener == null)
             throw new IllegalArgumentException("The debug listener must not be null");
         this.listener = listener;
+        this.active = listener;
+    }
+
+    /**
+     * Replaces the listener, the notifications started afterwards go to the new one including
+     * those of the subscribers already wrapped.
+     * 
+     * @param listener
+     */
+    public synchronized void setListener(DebugNotificationListener<C> listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("The debug listener must not be null");
+        this.listener = listener;
+        if (enabled)
+            this.active = listener;
+    }
+
+    public synchronized DebugNotificationListener<C> getListener() {
+        return listener;
+    }
+
+    /**
+     * While disabled no new subscriber is wrapped and the ones already wrapped pass their events
+     * through without notifying the listener. Since RxJava only takes one hook this is how to
+     * only trace for a while.
+     * 
+     * @param enabled
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        this.active = enabled ? listener : null;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the listener to notify or null while disabled.
+     */
+    public DebugNotificationListener<C> getActiveListener() {
+        return active;
+    }
+
+    /**
+     * When enabled every {@link DebugSubscriber} created afterwards passes the same
+     * {@link DebugNotification} instance to the listener for all of its onNext values instead of
+     * allocating one per value. Only turn this on if the listener doesn't keep the notification or
+     * uses {@link DebugNotification#snapshot()} to keep it.
+     * 
+     * @param reuse
+     */
+    public void setReuseOnNextNotifications(boolean reuse) {
+        this.reuseOnNextNotifications = reuse;
+    }
+
+    public boolean isReuseOnNextNotifications() {
+        return reuseOnNextNotifications;
+    }
+
+    /**
+     * Only the subscriptions chosen by the sampler made after this call are traced.
+     * 
+     * @param sampler
+     */
+    public void setSampler(DebugSampler sampler) {
+        if (sampler == null)
+            throw new IllegalArgumentException("The sampler must not be null");
+        this.sampler = sampler;
+    }
+
+    public DebugSampler getSampler() {
+        return sampler;
+    }
+
+    /**
+     * Finds where each operator and source assembled afterwards comes from and attaches it to the
+     * notifications as {@link DebugNotification#getAssemblySite()}.
+     * 
+     * @param tracker
+     *            null to stop tracking.
+     */
+    public void setAssemblyTracker(AssemblyTracker tracker) {
+        this.assemblyTracker = tracker;
+    }
+
+    public AssemblyTracker getAssemblyTracker() {
+        return assemblyTracker;
+    }
+
+    /**
+     * Limits what of the onNext values is kept by the listeners that store or export the
+     * notifications, see {@link ValueCapture}. Applies to the subscribers already wrapped too.
+     * 
+     * @param capture
+     */
+    public void setValueCapture(ValueCapture capture) {
+        if (capture == null)
+            throw new IllegalArgumentException("The value capture must not be null");
+        this.valueCapture = capture;
+    }
+
+    public ValueCapture getValueCapture() {
+        return valueCapture;
+    }
+
+    /**
+     * Only the operators and sources accepted by the filter get wrapped from now on and only the
+     * kinds of notification it accepts are sent to the listener by the new wrappers.
+     * 
+     * @param filter
+     */
+    public void setFilter(DebugFilter filter) {
+        if (filter == null)
+            throw new IllegalArgumentException("The filter must not be null");
+        this.filtering = new Filtering(filter);
+    }
+
+    public DebugFilter getFilter() {
+        return filtering.filter;
+    }
+
+    /**
+     * A {@link DebugFilter} and the decisions it has made so far.
+     */
+    private static final class Filtering {
+        final DebugFilter filter;
+        final int kinds;
+        final ConcurrentMap<Class<?>, Boolean> decisions = new ConcurrentHashMap<Class<?>, Boolean>();
+
+        Filtering(DebugFilter filter) {
+            this.filter = filter;
+            this.kinds = filter.getKindMask();
+        }
+
+        boolean accept(Object o) {
+            if (filter == DebugFilter.all())
+                return true;
+            final Class<?> c = o.getClass();
+            Boolean decision = decisions.get(c);
+            if (decision == null) {
+                decision = filter.accept(c);
+                decisions.put(c, decision);
+            }
+            return decision;
+        }
+
+        boolean accept(Kind kind) {
+            return (kinds & (1 << kind.ordinal())) != 0;
+        }
     }
 
     @Override
@@ -48,16 +223,50 @@ public class DebugHook<C> extends RxJavaObservableExecutionHook {
         return new OnSubscribe<T>() {
             @Override
             public void call(Subscriber<? super T> o) {
-                final DebugNotification<T> n = DebugNotification.createSubscribe(o, observableInstance, f);
-                o = wrapOutbound(null, o);
+                final DebugNotificationListener<C> listener = active;
+                if (listener == null) {
+                    // the lifts and sources check active too so nothing needs to be marked
+                    f.call(o);
+                    return;
+                }
+                final boolean[] tracing = DebugHook.this.tracing.get();
+                final boolean outer = tracing[0];
+                if (!sampler.sample(observableInstance, f)) {
+                    tracing[0] = false;
+                    try {
+                        f.call(o);
+                    } finally {
+                        tracing[0] = outer;
+                    }
+                    return;
+                }
 
-                C context = listener.start(n);
+                final Filtering filtering = DebugHook.this.filtering;
+                tracing[0] = true;
                 try {
-                    f.call(o);
-                    listener.complete(context);
-                } catch (Throwable e) {
-                    listener.error(context, e);
-                    throw Exceptions.propagate(e);
+                    if (!filtering.accept(f instanceof DebugOnSubscribe ? ((DebugHook<?>.DebugOnSubscribe<T>) f).getActual() : f)) {
+                        // the operators of the chain are still filtered on their own
+                        f.call(o);
+                        return;
+                    }
+                    final DebugSubscriber<T, C> ds = wrapOutbound(null, o, null);
+                    if (!filtering.accept(Kind.Subscribe)) {
+                        f.call(ds);
+                        return;
+                    }
+
+                    final DebugNotification<T> n = DebugNotification.createSubscribe(ds, observableInstance, f);
+
+                    C context = listener.start(n);
+                    try {
+                        f.call(ds);
+                        listener.complete(context);
+                    } catch (Throwable e) {
+                        listener.error(context, e);
+                        throw Exceptions.propagate(e);
+                    }
+                } finally {
+                    tracing[0] = outer;
                 }
             }
         };
@@ -70,24 +279,37 @@ public class DebugHook<C> extends RxJavaObservableExecutionHook {
 
     @Override
     public <T> OnSubscribe<T> onCreate(final OnSubscribe<T> f) {
-        return new DebugOnSubscribe<T>(f);
+        // always wrapped so a source created while disabled is traced once the hook is enabled
+        final AssemblyTracker tracker = assemblyTracker;
+        return new DebugOnSubscribe<T>(f, tracker == null || active == null ? null : tracker.captureNew(f));
     }
 
     public final class DebugOnSubscribe<T> implements OnSubscribe<T> {
         private final OnSubscribe<T> f;
+        private final AssemblySite site;
 
-        private DebugOnSubscribe(OnSubscribe<T> f) {
+        private DebugOnSubscribe(OnSubscribe<T> f, AssemblySite site) {
             this.f = f;
+            this.site = site;
         }
 
         @Override
         public void call(Subscriber<? super T> o) {
-            f.call(wrapInbound(null, o));
+            if (active != null && tracing.get()[0] && filtering.accept(f))
+                o = wrapInbound(null, o, site);
+            f.call(o);
         }
 
         public OnSubscribe<T> getActual() {
             return f;
         }
+
+        /**
+         * @return where {@link Observable#create} was called or null if not tracked.
+         */
+        public AssemblySite getAssemblySite() {
+            return site;
+        }
     }
 
     @Override
@@ -95,28 +317,46 @@ public class DebugHook<C> extends RxJavaObservableExecutionHook {
         return new Operator<R, T>() {
             @Override
             public Subscriber<? super T> call(final Subscriber<? super R> o) {
-                return wrapInbound(bind, bind.call(wrapOutbound(bind, o)));
+                if (active == null || !tracing.get()[0] || !filtering.accept(bind))
+                    return bind.call(o);
+                final AssemblyTracker tracker = assemblyTracker;
+                final AssemblySite site = tracker == null ? null : tracker.capture(bind);
+                final DebugSubscriber<R, C> outbound = wrapOutbound(bind, o, site);
+                final DebugSubscriber<T, C> inbound = wrapInbound(bind, bind.call(outbound), site);
+                inbound.setDownstream(outbound);
+                return inbound;
             }
         };
     }
 
     @SuppressWarnings("unchecked")
-    private <R> Subscriber<? super R> wrapOutbound(Operator<? extends R, ?> bind, Subscriber<? super R> o) {
+    private <R> DebugSubscriber<R, C> wrapOutbound(Operator<? extends R, ?> bind, Subscriber<? super R> o, AssemblySite site) {
         if (o instanceof DebugSubscriber) {
+            final DebugSubscriber<R, C> ds = (DebugSubscriber<R, C>) o;
             if (bind != null)
-                ((DebugSubscriber<R, C>) o).setFrom(bind);
-            return o;
+                ds.setFrom(bind);
+            if (site != null)
+                ds.setAssemblySite(site);
+            return ds;
         }
-        return new DebugSubscriber<R, C>(listener, o, bind, null);
+        final DebugSubscriber<R, C> ds = new DebugSubscriber<R, C>(this, o, bind, null, reuseOnNextNotifications, filtering.kinds);
+        ds.setAssemblySite(site);
+        return ds;
     }
 
     @SuppressWarnings("unchecked")
-    private <T> Subscriber<? super T> wrapInbound(Operator<?, ? super T> bind, Subscriber<? super T> o) {
+    private <T> DebugSubscriber<T, C> wrapInbound(Operator<?, ? super T> bind, Subscriber<? super T> o, AssemblySite site) {
         if (o instanceof DebugSubscriber) {
+            final DebugSubscriber<T, C> ds = (DebugSubscriber<T, C>) o;
             if (bind != null)
-                ((DebugSubscriber<T, C>) o).setTo(bind);
-            return o;
+                ds.setTo(bind);
+            // the site of the operator emitting to the subscriber set by wrapOutbound wins
+            if (ds.getAssemblySite() == null)
+                ds.setAssemblySite(site);
+            return ds;
         }
-        return new DebugSubscriber<T, C>(listener, o, null, bind);
+        final DebugSubscriber<T, C> ds = new DebugSubscriber<T, C>(this, o, null, bind, reuseOnNextNotifications, filtering.kinds);
+        ds.setAssemblySite(site);
+        return ds;
     }
 }
@@ -0,0 +1,276 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import rx.functions.Func1;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves what the listeners have collected over HTTP with the JDK's built in server so it can be
+ * read from outside the process. Nothing is started unless one of these is created.
+ * <p>
+ * Each resource is a function from the query parameters to the items to return. The items are
+ * written one per line as JSON, newline delimited JSON that log pipelines and scripts can consume
+ * directly, streamed as they are written rather than built into one string. Every resource takes
+ * {@code offset} and {@code limit} parameters to page through the items, when the items are a
+ * collection the header {@code X-Total-Count} has how many there are. {@code GET /} lists the
+ * resources.
+ * <p>
+ * Requests are handled one at a time on a daemon thread of their own. The snapshots of the
+ * listeners served by the methods here don't block the threads being traced.
+ */
+public class DebugHttpEndpoint implements Closeable {
+    /**
+     * The number of items returned when the request has no limit.
+     */
+    public static final int DEFAULT_LIMIT = 1000;
+
+    private static final String NDJSON = "application/x-ndjson; charset=utf-8";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Func1<Map<String, String>, ? extends Iterable<?>>> resources = new ConcurrentSkipListMap<String, Func1<Map<String, String>, ? extends Iterable<?>>>();
+
+    /**
+     * Starts serving at the address.
+     * 
+     * @param address
+     *            port 0 picks a free port, see {@link #getAddress()}.
+     * @throws IOException
+     *             if the address can't be bound.
+     */
+    public DebugHttpEndpoint(InetSocketAddress address) throws IOException {
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "RxDebugHttpEndpoint");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                DebugHttpEndpoint.this.handle(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return the address the server is bound to.
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * @param path
+     *            such as "/events".
+     * @param resource
+     *            called on the server's thread for every request with the query parameters. Strings
+     *            are written quoted, map entries as a name and value and anything else as its
+     *            {@link Object#toString()}, which must be JSON that doesn't depend on the default
+     *            locale like the snapshots of the listeners.
+     * @return this
+     */
+    public DebugHttpEndpoint add(String path, Func1<Map<String, String>, ? extends Iterable<?>> resource) {
+        if (!path.startsWith("/"))
+            throw new IllegalArgumentException("The path must start with /");
+        resources.put(path, resource);
+        return this;
+    }
+
+    /**
+     * Serves the events kept by the listener at /events, oldest first.
+     * 
+     * @return this
+     */
+    public DebugHttpEndpoint addEvents(final RingBufferDebugNotificationListener listener) {
+        return add("/events", new Func1<Map<String, String>, Iterable<?>>() {
+            @Override
+            public Iterable<?> call(Map<String, String> params) {
+                return listener.getSnapshot();
+            }
+        });
+    }
+
+    /**
+     * Serves the stats of each operator class at /metrics over the last {@code seconds}, 60 by
+     * default.
+     * 
+     * @return this
+     */
+    public DebugHttpEndpoint addMetrics(final RollingWindowDebugNotificationListener listener) {
+        return add("/metrics", new Func1<Map<String, String>, Iterable<?>>() {
+            @Override
+            public Iterable<?> call(Map<String, String> params) {
+                return listener.getStats(parameter(params, "seconds", 60), TimeUnit.SECONDS).entrySet();
+            }
+        });
+    }
+
+    /**
+     * Serves the links between the subscribers and operators currently subscribed at
+     * /subscriptions.
+     * 
+     * @return this
+     */
+    public DebugHttpEndpoint addSubscriptions(final OperatorGraphDebugNotificationListener listener) {
+        return add("/subscriptions", new Func1<Map<String, String>, Iterable<?>>() {
+            @Override
+            public Iterable<?> call(Map<String, String> params) {
+                return listener.getSnapshot();
+            }
+        });
+    }
+
+    /**
+     * Serves the subscriptions open for too long at /leaks.
+     * 
+     * @return this
+     */
+    public DebugHttpEndpoint addLeaks(final LeakDetectorDebugNotificationListener listener) {
+        return add("/leaks", new Func1<Map<String, String>, Iterable<?>>() {
+            @Override
+            public Iterable<?> call(Map<String, String> params) {
+                return listener.getSuspects();
+            }
+        });
+    }
+
+    /**
+     * Stops serving, a request in progress is cut short.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            final String path = exchange.getRequestURI().getPath();
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if ("/".equals(path)) {
+                write(exchange, resources.keySet(), 0, Integer.MAX_VALUE);
+                return;
+            }
+            final Func1<Map<String, String>, ? extends Iterable<?>> resource = resources.get(path);
+            if (resource == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            final Map<String, String> params = parse(exchange.getRequestURI().getRawQuery());
+            Iterable<?> items;
+            try {
+                items = resource.call(params);
+                if (items == null)
+                    items = Collections.emptyList();
+            } catch (RuntimeException e) {
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            write(exchange, items, parameter(params, "offset", 0), parameter(params, "limit", DEFAULT_LIMIT));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void write(HttpExchange exchange, Iterable<?> items, long offset, long limit) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", NDJSON);
+        if (items instanceof Collection)
+            exchange.getResponseHeaders().set("X-Total-Count", Integer.toString(((Collection<?>) items).size()));
+        // a length of 0 streams the body in chunks
+        exchange.sendResponseHeaders(200, 0);
+        final Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), "UTF-8"));
+        final Iterator<?> it = items.iterator();
+        for (long i = 0; i < offset && it.hasNext(); i++) {
+            it.next();
+        }
+        for (long i = 0; i < limit && it.hasNext(); i++) {
+            writeLine(out, it.next());
+        }
+        out.flush();
+    }
+
+    private static void writeLine(Writer out, Object item) throws IOException {
+        if (item instanceof Entry) {
+            final Entry<?, ?> e = (Entry<?, ?>) item;
+            out.write("{\"name\": ");
+            out.write(DebugNotification.quote(e.getKey()));
+            out.write(", \"value\": ");
+            out.write(String.valueOf(e.getValue()));
+            out.write("}\n");
+        } else if (item instanceof String) {
+            out.write(DebugNotification.quote(item));
+            out.write('\n');
+        } else {
+            out.write(String.valueOf(item));
+            out.write('\n');
+        }
+    }
+
+    private static Map<String, String> parse(String query) throws UnsupportedEncodingException {
+        final Map<String, String> params = new HashMap<String, String>();
+        if (query == null)
+            return params;
+        for (String pair : query.split("&")) {
+            final int eq = pair.indexOf('=');
+            if (eq < 0)
+                params.put(URLDecoder.decode(pair, "UTF-8"), "");
+            else
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+        return params;
+    }
+
+    static long parameter(Map<String, String> params, String name, long defaultValue) {
+        final String value = params.get(name);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Math.max(0, Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
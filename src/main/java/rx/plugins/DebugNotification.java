@@ -12,6 +12,8 @@
  */
 package rx.plugins;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import rx.Observable;
 import rx.Observable.OnSubscribe;
 import rx.Observable.Operator;
@@ -33,19 +35,52 @@ public class DebugNotification<T> {
 
     private final Observable<? extends T> source;
     private final OnSubscribe<T> sourceFunc;
-    private final Operator<? extends T, ?> from;
+    private Operator<? extends T, ?> from;
     private final Kind kind;
-    private final Operator<?, ? super T> to;
+    private Operator<?, ? super T> to;
     private final Throwable throwable;
-    private final T value;
+    private T value;
     private final long n;
     @SuppressWarnings("rawtypes")
     private final Subscriber observer;
+    private final boolean reusable;
+    private int observerId;
+    private int fromId;
+    private int toId;
+    private int sourceFuncId;
+    private DebugSubscriber<?, ?> idSource;
+    private AssemblySite assemblySite;
+    private long sequence;
+    private long threadSequence;
+    private long threadId;
+    private ValueCapture valueCapture;
+    private Object captured = NOT_CAPTURED;
+
+    private static final Object NOT_CAPTURED = new Object();
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static final ThreadLocal<ThreadSequence> THREAD_SEQUENCE = new ThreadLocal<ThreadSequence>() {
+        @Override
+        protected ThreadSequence initialValue() {
+            return new ThreadSequence(Thread.currentThread().getId());
+        }
+    };
+
+    private static final class ThreadSequence {
+        private final long threadId;
+        private long next;
+
+        ThreadSequence(long threadId) {
+            this.threadId = threadId;
+        }
+    }
 
     @SuppressWarnings("unchecked")
     public static <T, C> DebugNotification<T> createSubscribe(Subscriber<? super T> o, Observable<? extends T> source, OnSubscribe<T> sourceFunc) {
         Operator<?, ? super T> to = null;
         Operator<? extends T, ?> from = null;
+        DebugSubscriber<?, ?> idSource = null;
+        AssemblySite site = null;
         if (o instanceof SafeSubscriber) {
             o = ((SafeSubscriber<T>) o).getActual();
         }
@@ -55,11 +90,17 @@ public class DebugNotification<T> {
             to = ds.getTo();
             from = ds.getFrom();
             o = ds.getActual();
+            idSource = ds;
+            site = ds.getAssemblySite();
         }
         if (sourceFunc instanceof DebugHook.DebugOnSubscribe) {
-            sourceFunc = ((DebugHook.DebugOnSubscribe) sourceFunc).getActual();
+            final DebugHook<?>.DebugOnSubscribe<T> dos = (DebugHook<?>.DebugOnSubscribe<T>) sourceFunc;
+            if (dos.getAssemblySite() != null)
+                site = dos.getAssemblySite();
+            sourceFunc = dos.getActual();
         }
-        return new DebugNotification<T>(o, from, Kind.Subscribe, null, null, to, source, sourceFunc, -1);
+        final DebugNotification<T> n = new DebugNotification<T>(o, from, Kind.Subscribe, null, null, to, source, sourceFunc, -1);
+        return n.setIdSource(idSource).setAssemblySite(site);
     }
 
     public static <T> DebugNotification<T> createStart(Subscriber<? super T> o, Operator<? extends T, ?> from, Operator<?, ? super T> to) {
@@ -70,6 +111,17 @@ public class DebugNotification<T> {
         return new DebugNotification<T>(o, from, Kind.OnNext, t, null, to, null, null, -1);
     }
 
+    /**
+     * Creates an {@link Kind#OnNext} notification that is overwritten by
+     * {@link #reuseOnNext(Operator, Object, Operator)} for every value delivered to the
+     * subscriber instead of allocating a new notification each time.
+     * 
+     * @see #snapshot()
+     */
+    public static <T> DebugNotification<T> createReusableOnNext(Subscriber<? super T> o) {
+        return new DebugNotification<T>(o, null, Kind.OnNext, null, null, null, null, null, -1, true);
+    }
+
     public static <T> DebugNotification<T> createOnError(Subscriber<? super T> o, Operator<? extends T, ?> from, Throwable e, Operator<?, ? super T> to) {
         return new DebugNotification<T>(o, from, Kind.OnError, null, e, to, null, null, -1);
     }
@@ -89,6 +141,13 @@ public class DebugNotification<T> {
     @SuppressWarnings("rawtypes")
     private DebugNotification(Subscriber o, Operator<? extends T, ?> from, Kind kind, T value, Throwable throwable, Operator<?, ? super T> to, Observable<? extends T> source, OnSubscribe<T> sourceFunc,
             long n) {
+        this(o, from, kind, value, throwable, to, source, sourceFunc, n, false);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private DebugNotification(Subscriber o, Operator<? extends T, ?> from, Kind kind, T value, Throwable throwable, Operator<?, ? super T> to, Observable<? extends T> source, OnSubscribe<T> sourceFunc,
+            long n, boolean reusable) {
+        this.reusable = reusable;
         this.observer = (o instanceof SafeSubscriber) ? ((SafeSubscriber) o).getActual() : o;
         this.from = from;
         this.kind = kind;
@@ -100,6 +159,169 @@ public class DebugNotification<T> {
         this.n = n;
     }
 
+    /**
+     * Overwrites the state of a notification made by {@link #createReusableOnNext(Subscriber)}
+     * with the next value.
+     * 
+     * @return this notification
+     * @throws IllegalStateException
+     *             if this notification isn't reusable
+     */
+    public DebugNotification<T> reuseOnNext(Operator<? extends T, ?> from, T t, Operator<?, ? super T> to) {
+        if (!reusable)
+            throw new IllegalStateException("The notification is not reusable");
+        this.from = from;
+        this.value = t;
+        this.to = to;
+        this.fromId = 0;
+        this.toId = 0;
+        this.captured = NOT_CAPTURED;
+        this.sequence = 0;
+        return this;
+    }
+
+    /**
+     * Used by {@link CompositeDebugNotificationListener} to show the next listener the value as
+     * replaced by the one before it without changing this notification, which the other listeners
+     * and the snapshots they kept still see with the value emitted.
+     * 
+     * @return an immutable copy of this notification with the value given, numbered the same.
+     */
+    DebugNotification<T> withValue(T t) {
+        number();
+        final DebugNotification<T> copy = new DebugNotification<T>(observer, from, kind, t, throwable, to, source, sourceFunc, n);
+        copy.idSource = idSource;
+        copy.valueCapture = valueCapture;
+        copy.sequence = sequence;
+        copy.threadSequence = threadSequence;
+        copy.threadId = threadId;
+        return copy.setIds(observerId, fromId, toId).setAssemblySite(assemblySite);
+    }
+
+    /**
+     * Sets the {@link DebugRegistry} ids of the observer and operators when the caller has already
+     * resolved them. An id of 0 is looked up when asked for.
+     * 
+     * @return this notification
+     */
+    public DebugNotification<T> setIds(int observerId, int fromId, int toId) {
+        this.observerId = observerId;
+        this.fromId = fromId;
+        this.toId = toId;
+        return this;
+    }
+
+    /**
+     * Resolves the ids not set by {@link #setIds(int, int, int)} through the subscriber the first
+     * time they are asked for, so they are looked up once per subscriber instead of once per event.
+     * 
+     * @return this notification
+     */
+    public DebugNotification<T> setIdSource(DebugSubscriber<?, ?> subscriber) {
+        this.idSource = subscriber;
+        return this;
+    }
+
+    /**
+     * Numbers this notification in the order events happen, once across all threads and once for
+     * the thread calling, so listeners can order the notifications without comparing timestamps
+     * taken on different cores.
+     * <p>
+     * Numbering takes a shared counter so it is only done for the listeners that need it, the
+     * first time {@link #getSequence()}, {@link #getThreadSequence()}, {@link #getThreadId()} or
+     * {@link #snapshot()} is called. Listeners do that from
+     * {@link DebugNotificationListener#start(DebugNotification)} so the number is taken on the
+     * thread of the event.
+     * 
+     * @return this notification
+     */
+    public DebugNotification<T> nextSequence() {
+        final ThreadSequence local = THREAD_SEQUENCE.get();
+        this.sequence = SEQUENCE.incrementAndGet();
+        this.threadSequence = ++local.next;
+        this.threadId = local.threadId;
+        return this;
+    }
+
+    private void number() {
+        if (sequence == 0)
+            nextSequence();
+    }
+
+    /**
+     * Used by {@link AsyncDebugNotificationListener} to rebuild an event on its dispatch thread.
+     * Only the fields {@link #reuseOnNext(Operator, Object, Operator)} overwrites are copied by the
+     * thread the event happens on, the rest never change once the notification is passed to a
+     * listener so they are read from this one here. The copy is numbered in the order it is
+     * rebuilt and takes the same number as its thread sequence, which keeps the order of the
+     * events of each thread without counting them per thread.
+     */
+    DebugNotification<T> replay(Operator<? extends T, ?> from, T value, Operator<?, ? super T> to, long threadId) {
+        final DebugNotification<T> copy = new DebugNotification<T>(observer, from, kind, value, throwable, to, source, sourceFunc, n);
+        copy.idSource = idSource;
+        copy.valueCapture = valueCapture;
+        copy.sequence = SEQUENCE.incrementAndGet();
+        copy.threadSequence = copy.sequence;
+        copy.threadId = threadId;
+        return copy.setIds(observerId, 0, 0).setAssemblySite(assemblySite);
+    }
+
+    /**
+     * @return the position of this notification among the events of all threads starting at 1.
+     */
+    public long getSequence() {
+        number();
+        return sequence;
+    }
+
+    /**
+     * @return the position of this notification among the events of the thread it happened on
+     *         starting at 1. Notifications replayed by {@link AsyncDebugNotificationListener} keep
+     *         the order of their thread but aren't numbered consecutively.
+     */
+    public long getThreadSequence() {
+        number();
+        return threadSequence;
+    }
+
+    /**
+     * @return the id of the thread the notification was numbered on.
+     */
+    public long getThreadId() {
+        number();
+        return threadId;
+    }
+
+    /**
+     * @return true if the contents of this notification will change after the listener returns.
+     */
+    public boolean isReusable() {
+        return reusable;
+    }
+
+    /**
+     * Listeners that hold on to the notification after {@link DebugNotificationListener#start(DebugNotification)}
+     * or {@link DebugNotificationListener#onNext(DebugNotification)} returns must keep the snapshot
+     * instead of the notification passed in.
+     * 
+     * @return this if the notification is immutable otherwise an immutable copy of it.
+     */
+    public DebugNotification<T> snapshot() {
+        number();
+        if (!reusable && valueCapture == null)
+            return this;
+        final DebugNotification<T> copy = new DebugNotification<T>(observer, from, kind, valueCapture == null ? value : null, throwable, to, source, sourceFunc, n);
+        if (valueCapture != null) {
+            copy.valueCapture = valueCapture;
+            copy.captured = getCapturedValue();
+        }
+        copy.sequence = sequence;
+        copy.threadSequence = threadSequence;
+        copy.threadId = threadId;
+        // resolved now as the copy doesn't keep the subscriber alive
+        return copy.setIds(getObserverId(), getFromId(), getToId()).setAssemblySite(assemblySite);
+    }
+
     public Observer<?> getObserver() {
         return observer;
     }
@@ -112,6 +334,31 @@ public class DebugNotification<T> {
         return value;
     }
 
+    /**
+     * @return the value as kept by the {@link ValueCapture} of the hook, the same as
+     *         {@link #getValue()} unless a policy other than {@link ValueCapture#value()} is set.
+     */
+    public Object getCapturedValue() {
+        if (valueCapture == null)
+            return value;
+        if (captured == NOT_CAPTURED)
+            captured = valueCapture.capture(value);
+        return captured;
+    }
+
+    /**
+     * Sets the policy applied by {@link #getCapturedValue()}. A {@link #snapshot()} made with a
+     * policy other than {@link ValueCapture#value()} only has the captured value and returns null
+     * from {@link #getValue()}.
+     * 
+     * @return this notification
+     */
+    public DebugNotification<T> setValueCapture(ValueCapture capture) {
+        this.valueCapture = capture == ValueCapture.value() ? null : capture;
+        this.captured = NOT_CAPTURED;
+        return this;
+    }
+
     public Throwable getThrowable() {
         return throwable;
     }
@@ -128,6 +375,86 @@ public class DebugNotification<T> {
         return kind;
     }
 
+    /**
+     * @return the {@link DebugRegistry} id of the observer, 0 if there is none.
+     */
+    public int getObserverId() {
+        if (observerId == 0)
+            observerId = idSource != null ? idSource.getObserverId() : DebugRegistry.getInstance().id(observer);
+        return observerId;
+    }
+
+    /**
+     * @return the {@link DebugRegistry} id of the from operator, 0 if there is none.
+     */
+    public int getFromId() {
+        if (fromId == 0)
+            fromId = idSource != null && idSource.getFrom() == from ? idSource.getFromId() : DebugRegistry.getInstance().id(from);
+        return fromId;
+    }
+
+    /**
+     * @return the {@link DebugRegistry} id of the to operator, 0 if there is none.
+     */
+    public int getToId() {
+        if (toId == 0)
+            toId = idSource != null && idSource.getTo() == to ? idSource.getToId() : DebugRegistry.getInstance().id(to);
+        return toId;
+    }
+
+    /**
+     * @return the {@link DebugRegistry} id of the subscriber the to operator emits to for the same
+     *         subscription, 0 if there is no to operator or the hook didn't link it.
+     * @see DebugSubscriber#setDownstream(DebugSubscriber)
+     */
+    public int getDownstreamId() {
+        return idSource != null && idSource.getTo() == to ? idSource.getDownstreamId() : 0;
+    }
+
+    /**
+     * @return the {@link DebugRegistry} id of the source {@link OnSubscribe}, 0 if there is none.
+     */
+    public int getSourceFuncId() {
+        if (sourceFuncId == 0)
+            sourceFuncId = DebugRegistry.getInstance().id(sourceFunc);
+        return sourceFuncId;
+    }
+
+    /**
+     * @return where the operator or source the notification comes from was assembled, null unless
+     *         the {@link DebugHook} has an {@link AssemblyTracker} and sampled it.
+     */
+    public AssemblySite getAssemblySite() {
+        return assemblySite;
+    }
+
+    /**
+     * @return this notification
+     */
+    public DebugNotification<T> setAssemblySite(AssemblySite site) {
+        this.assemblySite = site;
+        return this;
+    }
+
+    /**
+     * @return for a {@link Kind#Subscribe}, the operator the subscriber gets its values from, the
+     *         last one applied to the {@link Observable} subscribed to. The subscribe is what lifts
+     *         the operators so this is only known once it has returned, from
+     *         {@link DebugNotificationListener#complete(Object)} on, and null before that, for the
+     *         other kinds or if no operator of the chain is traced.
+     */
+    public Operator<?, ?> getSubscribedFrom() {
+        return kind == Kind.Subscribe && idSource != null ? idSource.getFrom() : null;
+    }
+
+    /**
+     * @return for a {@link Kind#Subscribe}, where {@link #getSubscribedFrom()} was assembled, null
+     *         unless the {@link DebugHook} has an {@link AssemblyTracker} that sampled it.
+     */
+    public AssemblySite getSubscribedAssemblySite() {
+        return kind == Kind.Subscribe && idSource != null ? idSource.getAssemblySite() : null;
+    }
+
     public Observable<? extends T> getSource() {
         return source;
     }
@@ -141,26 +468,29 @@ public class DebugNotification<T> {
      * Does a very bad job of making JSON like string.
      */
     public String toString() {
+        final DebugRegistry registry = DebugRegistry.getInstance();
         final StringBuilder s = new StringBuilder("{");
         s.append("\"observer\": ");
         if (observer != null)
-            s.append("\"").append(observer.getClass().getName()).append("@").append(Integer.toHexString(observer.hashCode())).append("\"");
+            s.append("\"").append(registry.get(getObserverId())).append("\"");
         else s.append("null");
         s.append(", \"type\": \"").append(kind).append("\"");
         if (kind == Kind.OnNext)
-            s.append(", \"value\": ").append(quote(value));
+            s.append(", \"value\": ").append(quote(getCapturedValue()));
         if (kind == Kind.OnError)
             s.append(", \"exception\": \"").append(throwable.getMessage() == null ? throwable.getClass().getSimpleName() : throwable.getMessage().replace("\\", "\\\\").replace("\"", "\\\"")).append("\"");
         if (kind == Kind.Request)
             s.append(", \"n\": ").append(n);
         if (source != null)
-            s.append(", \"source\": \"").append(source.getClass().getName()).append("@").append(Integer.toHexString(source.hashCode())).append("\"");
+            s.append(", \"source\": \"").append(registry.describe(source)).append("\"");
         if (sourceFunc != null)
-            s.append(", \"sourceFunc\": \"").append(sourceFunc.getClass().getName()).append("@").append(Integer.toHexString(sourceFunc.hashCode())).append("\"");
+            s.append(", \"sourceFunc\": \"").append(registry.get(getSourceFuncId())).append("\"");
         if (from != null)
-            s.append(", \"from\": \"").append(from.getClass().getName()).append("@").append(Integer.toHexString(from.hashCode())).append("\"");
+            s.append(", \"from\": \"").append(registry.get(getFromId())).append("\"");
         if (to != null)
-            s.append(", \"to\": \"").append(to.getClass().getName()).append("@").append(Integer.toHexString(to.hashCode())).append("\"");
+            s.append(", \"to\": \"").append(registry.get(getToId())).append("\"");
+        if (assemblySite != null)
+            s.append(", \"assembly\": ").append(quote(assemblySite));
         s.append("}");
         return s.toString();
     }
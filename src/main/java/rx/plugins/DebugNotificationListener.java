@@ -37,6 +37,9 @@ public abstract class DebugNotificationListener<C> {
      * <p>
      * This can be used to decorate or replace the values passed into any onNext function or just
      * perform extra logging, metrics and other such things and pass-thru the function.
+     * <p>
+     * The notification may be reused for the next value so use {@link DebugNotification#snapshot()}
+     * to keep it after returning.
      * 
      * @param n
      *            {@link DebugNotification} containing the data and context about what is happening.
@@ -50,6 +53,9 @@ public abstract class DebugNotificationListener<C> {
      * For each {@link DebugNotification.Kind} start is invoked before the actual method is invoked.
      * <p>
      * This can be used to perform extra logging, metrics and other such things.
+     * <p>
+     * The notification may be reused for the next value so use {@link DebugNotification#snapshot()}
+     * to keep it after returning.
      * 
      * @param n
      *            {@link DebugNotification} containing the data and context about what is happening.
@@ -79,4 +85,30 @@ public abstract class DebugNotificationListener<C> {
      */
     public void error(C context, Throwable e) {
     }
+
+    /**
+     * @return true if the listener relies on the start and the complete or error of each event
+     *         being called on the thread the event happens on, as it happens and nested in the
+     *         events around it, for instance to time it, so it can't be called later from another
+     *         thread such as by {@link AsyncDebugNotificationListener}.
+     */
+    boolean needsCallingThread() {
+        return false;
+    }
+
+    /**
+     * @return true if the class of the listener replaces the default implementation of the method
+     *         so wrappers can skip calling the ones that do nothing.
+     */
+    static boolean overrides(DebugNotificationListener<?> listener, String name, Class<?>... parameterTypes) {
+        for (Class<?> c = listener.getClass(); c != DebugNotificationListener.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod(name, parameterTypes);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // keep looking in the super class
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,215 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gives every {@link rx.Subscriber}, {@link rx.Observable.Operator} and
+ * {@link rx.Observable.OnSubscribe} seen by the {@link DebugHook} a compact int id and a
+ * {@link Descriptor} the first time it is seen, so listeners can key on ints instead of building
+ * strings for every event. The names are only built when asked for. The instances are held weakly
+ * and their entries dropped once they have been collected.
+ * <p>
+ * Ids are never reused and 0 stands for null.
+ */
+public final class DebugRegistry {
+    private static final DebugRegistry INSTANCE = new DebugRegistry();
+
+    public static DebugRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentMap<Object, Descriptor> byInstance = new ConcurrentHashMap<Object, Descriptor>();
+    private final ConcurrentMap<Integer, Descriptor> byId = new ConcurrentHashMap<Integer, Descriptor>();
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    DebugRegistry() {
+    }
+
+    /**
+     * @return the id of o, registering it if it hasn't been seen before, or 0 for null.
+     */
+    public int id(Object o) {
+        return o == null ? 0 : describe(o).getId();
+    }
+
+    /**
+     * @return the descriptor of o, registering it if it hasn't been seen before, or null for null.
+     */
+    public Descriptor describe(Object o) {
+        if (o == null)
+            return null;
+        expunge();
+        final Descriptor d = byInstance.get(new Lookup(o));
+        if (d != null)
+            return d;
+        return register(o);
+    }
+
+    /**
+     * @return the descriptor with the id or null if its instance has been collected.
+     */
+    public Descriptor get(int id) {
+        if (id == 0)
+            return null;
+        expunge();
+        return byId.get(id);
+    }
+
+    /**
+     * @return the number of instances registered that haven't been collected yet.
+     */
+    public int size() {
+        expunge();
+        return byInstance.size();
+    }
+
+    private Descriptor register(Object o) {
+        final Descriptor d = new Descriptor(nextId.getAndIncrement(), o);
+        final Descriptor existing = byInstance.putIfAbsent(new Weak(o, d, collected), d);
+        if (existing != null)
+            return existing;
+        byId.put(d.id, d);
+        return d;
+    }
+
+    /**
+     * Drops the entries of collected instances, cheap when there are none as the queue is only
+     * locked when it isn't empty.
+     */
+    private void expunge() {
+        Reference<?> ref;
+        while ((ref = collected.poll()) != null) {
+            final Weak weak = (Weak) ref;
+            byInstance.remove(weak);
+            byId.remove(weak.descriptor.id);
+        }
+    }
+
+    /**
+     * The names of one registered instance.
+     */
+    public static final class Descriptor {
+        private final int id;
+        private final String className;
+        private final int identityHashCode;
+        private volatile String name;
+        private volatile byte[] json;
+        /**
+         * What the {@link AssemblyTracker} found for the instance so it only looks once.
+         */
+        volatile Object assembly;
+
+        Descriptor(int id, Object o) {
+            this.id = id;
+            this.className = o.getClass().getName();
+            this.identityHashCode = System.identityHashCode(o);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return the class name and identity hash code in the form of {@link Object#toString()},
+         *         built the first time it is needed.
+         */
+        public String getName() {
+            String n = name;
+            if (n == null)
+                name = n = className + "@" + Integer.toHexString(identityHashCode);
+            return n;
+        }
+
+        /**
+         * @return the name as a UTF-8 encoded JSON string, encoded the first time it is needed.
+         */
+        byte[] json() {
+            byte[] j = json;
+            if (j == null)
+                json = j = JsonEncoder.encode(getName());
+            return j;
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+    }
+
+    /**
+     * The keys of the map compare the instances by identity, a {@link Lookup} and a {@link Weak}
+     * of the same instance are equal.
+     */
+    private interface Key {
+        Object get();
+    }
+
+    private static final class Lookup implements Key {
+        private final Object o;
+
+        Lookup(Object o) {
+            this.o = o;
+        }
+
+        @Override
+        public Object get() {
+            return o;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(o);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).get() == o;
+        }
+    }
+
+    private static final class Weak extends WeakReference<Object> implements Key {
+        private final int hash;
+        private final Descriptor descriptor;
+
+        Weak(Object o, Descriptor descriptor, ReferenceQueue<Object> queue) {
+            super(o, queue);
+            this.hash = descriptor.identityHashCode;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+            final Object o = get();
+            return o != null && obj instanceof Key && ((Key) obj).get() == o;
+        }
+    }
+}
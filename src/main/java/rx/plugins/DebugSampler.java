@@ -0,0 +1,92 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observable;
+import rx.Observable.OnSubscribe;
+
+/**
+ * Decides which subscriptions the {@link DebugHook} traces. The decision is made once when
+ * {@link Observable#subscribe} is called and applies to all of the operators of the chain being
+ * subscribed. Subscriptions that aren't sampled get no DebugSubscriber at all so they run at
+ * nearly full speed.
+ *
+ * @see DebugHook#setSampler(DebugSampler)
+ */
+public abstract class DebugSampler {
+    private static final DebugSampler ALL = new DebugSampler() {
+        @Override
+        public boolean sample(Observable<?> source, OnSubscribe<?> f) {
+            return true;
+        }
+    };
+
+    /**
+     * Called for every subscribe going through the {@link DebugHook}.
+     *
+     * @param source
+     *            the {@link Observable} being subscribed to.
+     * @param f
+     *            the {@link OnSubscribe} of the source.
+     * @return true if the subscription should be traced.
+     */
+    public abstract boolean sample(Observable<?> source, OnSubscribe<?> f);
+
+    /**
+     * @return a sampler that traces every subscription, this is the default.
+     */
+    public static DebugSampler all() {
+        return ALL;
+    }
+
+    /**
+     * @param n
+     *            how many subscriptions to count for each one traced.
+     * @return a sampler that traces the first and then every nth subscription.
+     */
+    public static DebugSampler oneIn(final long n) {
+        if (n < 1)
+            throw new IllegalArgumentException("n must be greater than zero");
+        if (n == 1)
+            return ALL;
+        return new DebugSampler() {
+            private final AtomicLong count = new AtomicLong();
+
+            @Override
+            public boolean sample(Observable<?> source, OnSubscribe<?> f) {
+                return count.getAndIncrement() % n == 0;
+            }
+        };
+    }
+
+    /**
+     * @param millis
+     *            the length of the window at the start of each second, between 0 and 1000.
+     * @return a sampler that traces the subscriptions made during the first millis of every
+     *         second of the wall clock.
+     */
+    public static DebugSampler millisPerSecond(final int millis) {
+        if (millis < 0 || millis > 1000)
+            throw new IllegalArgumentException("millis must be between 0 and 1000");
+        if (millis == 1000)
+            return ALL;
+        return new DebugSampler() {
+            @Override
+            public boolean sample(Observable<?> source, OnSubscribe<?> f) {
+                return System.currentTimeMillis() % 1000 < millis;
+            }
+        };
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A per thread stack of reusable frames for listeners that want to return a context from
+ * {@link DebugNotificationListener#start(DebugNotification)} without allocating one per event.
+ * <p>
+ * This works because the {@link DebugHook} always calls start and then complete or error for the
+ * same event on the same thread with the events of the downstream operators nested in between.
+ *
+ * @param <F>
+ *            the frame type, only ever touched by the thread that pushed it.
+ */
+abstract class FrameStack<F extends FrameStack.Frame> {
+    static class Frame {
+        int depth = -1;
+    }
+
+    private static final class Frames {
+        private Frame[] frames = new Frame[16];
+        private int size;
+    }
+
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong unmatched = new AtomicLong();
+    private final ThreadLocal<Frames> stacks = new ThreadLocal<Frames>() {
+        @Override
+        protected Frames initialValue() {
+            return new Frames();
+        }
+    };
+
+    protected abstract F newFrame();
+
+    /**
+     * @return the frame on top of the current thread's stack after pushing it.
+     */
+    @SuppressWarnings("unchecked")
+    F push() {
+        final Frames s = stacks.get();
+        if (s.size == s.frames.length)
+            s.frames = Arrays.copyOf(s.frames, s.size * 2);
+        Frame f = s.frames[s.size];
+        if (f == null)
+            s.frames[s.size] = f = newFrame();
+        f.depth = s.size++;
+        return (F) f;
+    }
+
+    /**
+     * @return the frame the current thread pushed just before f or null if f is at the bottom,
+     *         still valid after f has been popped.
+     */
+    @SuppressWarnings("unchecked")
+    F below(F f) {
+        return f.depth > 0 ? (F) stacks.get().frames[f.depth - 1] : null;
+    }
+
+    /**
+     * Pops the frame and anything left above it by a start that never completed. The frames left
+     * above are discarded without their listener being told, their ends are lost and counted in
+     * {@link #getDiscarded()}.
+     *
+     * @return false if the frame isn't on the current thread's stack, for instance when complete
+     *         and then error are both invoked for the same context or complete is called on
+     *         another thread, counted in {@link #getUnmatched()}.
+     */
+    boolean pop(F f) {
+        final Frames s = stacks.get();
+        final int depth = f.depth;
+        if (depth < 0 || depth >= s.size || s.frames[depth] != f) {
+            unmatched.incrementAndGet();
+            return false;
+        }
+        if (s.size > depth + 1)
+            discarded.addAndGet(s.size - depth - 1);
+        s.size = depth;
+        return true;
+    }
+
+    /**
+     * @return the number of frames popped from under others that never ended.
+     */
+    long getDiscarded() {
+        return discarded.get();
+    }
+
+    /**
+     * @return the number of pops of frames that weren't on the calling thread's stack.
+     */
+    long getUnmatched() {
+        return unmatched.get();
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps {@link DebugRegistry} ids to the state a listener keeps for them. Reads neither lock nor
+ * box the id, writes are serialized on the table.
+ * <p>
+ * Entries are open addressed and never removed one by one. When the table fills up it is replaced
+ * by a bigger one without the ids whose instances have been collected, so the size follows the
+ * number of live instances.
+ */
+final class IdTable<V> {
+    private static final class Slots<V> {
+        final AtomicIntegerArray ids;
+        final AtomicReferenceArray<V> values;
+        final int mask;
+        int size;
+
+        Slots(int capacity) {
+            this.ids = new AtomicIntegerArray(capacity);
+            this.values = new AtomicReferenceArray<V>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        V get(int id) {
+            for (int i = slot(id); ; i = (i + 1) & mask) {
+                final int found = ids.get(i);
+                if (found == id)
+                    return values.get(i);
+                if (found == 0)
+                    return null;
+            }
+        }
+
+        /**
+         * Writes the value before the id so a reader that finds the id sees the value.
+         */
+        void put(int id, V value) {
+            int i = slot(id);
+            while (ids.get(i) != 0) {
+                i = (i + 1) & mask;
+            }
+            values.set(i, value);
+            ids.set(i, id);
+            size++;
+        }
+
+        private int slot(int id) {
+            final int h = id * 0x9E3779B9;
+            return (h ^ h >>> 16) & mask;
+        }
+    }
+
+    private volatile Slots<V> slots = new Slots<V>(64);
+
+    /**
+     * @return the value of the id or null if there is none.
+     */
+    V get(int id) {
+        return slots.get(id);
+    }
+
+    /**
+     * @return the value already there for the id or value if it was added.
+     */
+    synchronized V putIfAbsent(int id, V value) {
+        Slots<V> s = slots;
+        final V existing = s.get(id);
+        if (existing != null)
+            return existing;
+        if ((s.size + 1) * 2 > s.mask + 1)
+            s = grow(s);
+        s.put(id, value);
+        slots = s;
+        return value;
+    }
+
+    private static <V> Slots<V> grow(Slots<V> s) {
+        final DebugRegistry registry = DebugRegistry.getInstance();
+        int live = 0;
+        for (int i = 0; i <= s.mask; i++) {
+            final int id = s.ids.get(i);
+            if (id != 0 && registry.get(id) != null)
+                live++;
+        }
+        int capacity = s.mask + 1;
+        while ((live + 1) * 4 > capacity) {
+            capacity *= 2;
+        }
+        final Slots<V> bigger = new Slots<V>(capacity);
+        for (int i = 0; i <= s.mask; i++) {
+            final int id = s.ids.get(i);
+            if (id != 0 && registry.get(id) != null)
+                bigger.put(id, s.values.get(i));
+        }
+        return bigger;
+    }
+}
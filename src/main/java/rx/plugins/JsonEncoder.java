@@ -0,0 +1,198 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer that writes UTF-8 encoded JSON directly, meant to be reused by one thread
+ * so encoding an event allocates nothing but what toString of a value does.
+ */
+final class JsonEncoder {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(MappedTraceDebugNotificationListener.UTF8);
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+
+    private byte[] buf;
+    private int size;
+
+    JsonEncoder(int capacity) {
+        buf = new byte[capacity];
+    }
+
+    /**
+     * @return the JSON string literal of s as UTF-8, used to encode names once up front.
+     */
+    static byte[] encode(CharSequence s) {
+        final JsonEncoder e = new JsonEncoder(s.length() + 8);
+        e.string(s);
+        return e.toByteArray();
+    }
+
+    byte[] array() {
+        return buf;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    JsonEncoder raw(byte[] b) {
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, size, b.length);
+        size += b.length;
+        return this;
+    }
+
+    JsonEncoder raw(char c) {
+        ensure(1);
+        buf[size++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * Writes an ASCII string that needs no escaping, such as a field name or an enum constant.
+     */
+    JsonEncoder ascii(String s) {
+        final int length = s.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            buf[size++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    JsonEncoder number(long n) {
+        if (n == Long.MIN_VALUE)
+            return ascii("-9223372036854775808");
+        ensure(20);
+        if (n < 0) {
+            buf[size++] = '-';
+            n = -n;
+        }
+        int digits = 1;
+        for (long p = n; p >= 10; p /= 10) {
+            digits++;
+        }
+        for (int i = size + digits - 1; i >= size; i--) {
+            buf[i] = (byte) ('0' + n % 10);
+            n /= 10;
+        }
+        size += digits;
+        return this;
+    }
+
+    JsonEncoder nullValue() {
+        return raw(NULL);
+    }
+
+    /**
+     * Writes s as a quoted and escaped JSON string.
+     */
+    JsonEncoder string(CharSequence s) {
+        if (s == null)
+            return nullValue();
+        final int length = s.length();
+        ensure(length + 2);
+        buf[size++] = '"';
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                ensure(6 + 1);
+                switch (c) {
+                case '"':
+                case '\\':
+                    buf[size++] = '\\';
+                    buf[size++] = (byte) c;
+                    break;
+                case '\n':
+                    buf[size++] = '\\';
+                    buf[size++] = 'n';
+                    break;
+                case '\r':
+                    buf[size++] = '\\';
+                    buf[size++] = 'r';
+                    break;
+                case '\t':
+                    buf[size++] = '\\';
+                    buf[size++] = 't';
+                    break;
+                default:
+                    if (c < ' ') {
+                        buf[size++] = '\\';
+                        buf[size++] = 'u';
+                        buf[size++] = '0';
+                        buf[size++] = '0';
+                        buf[size++] = HEX[c >> 4];
+                        buf[size++] = HEX[c & 0xF];
+                    } else {
+                        buf[size++] = (byte) c;
+                    }
+                }
+            } else if (c < 0x800) {
+                ensure(2 + 1);
+                buf[size++] = (byte) (0xC0 | (c >> 6));
+                buf[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensure(4 + 1);
+                buf[size++] = (byte) (0xF0 | (cp >> 18));
+                buf[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[size++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // an unpaired surrogate can't be encoded in UTF-8
+                ensure(1 + 1);
+                buf[size++] = '?';
+            } else {
+                ensure(3 + 1);
+                buf[size++] = (byte) (0xE0 | (c >> 12));
+                buf[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        buf[size++] = '"';
+        return this;
+    }
+
+    /**
+     * Writes numbers and booleans as themselves and anything else as the string of its toString.
+     */
+    JsonEncoder value(Object o) {
+        if (o == null)
+            return nullValue();
+        if (o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte)
+            return number(((Number) o).longValue());
+        if (o instanceof Boolean)
+            return ascii(o.toString());
+        String s;
+        try {
+            s = o.toString();
+        } catch (Throwable e) {
+            s = o.getClass().getName();
+        }
+        return string(s);
+    }
+
+    private void ensure(int n) {
+        if (size + n > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+/**
+ * What {@link CountingDebugNotificationListener} and {@link RollingWindowDebugNotificationListener}
+ * count for each kind of notification, as indexes into an array of counters so both keep the same
+ * counts whatever the counters are.
+ */
+final class KindCounts {
+    static final int ON_NEXT = 0;
+    /**
+     * The sum of the bounded requests.
+     */
+    static final int REQUESTED = 1;
+    static final int UNBOUNDED_REQUESTS = 2;
+    static final int COMPLETED = 3;
+    static final int ERRORS = 4;
+    static final int SIZE = 5;
+
+    private KindCounts() {
+    }
+
+    /**
+     * @return the counter the notification adds to or -1 if it isn't counted.
+     */
+    static int index(DebugNotification<?> n) {
+        switch (n.getKind()) {
+        case OnNext:
+            return ON_NEXT;
+        case Request:
+            return n.getN() == Long.MAX_VALUE ? UNBOUNDED_REQUESTS : REQUESTED;
+        case OnCompleted:
+            return COMPLETED;
+        case OnError:
+            return ERRORS;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * @return how much the notification adds to its counter.
+     */
+    static long amount(DebugNotification<?> n, int index) {
+        return index == REQUESTED ? n.getN() : 1;
+    }
+}
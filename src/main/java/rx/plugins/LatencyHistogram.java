@@ -0,0 +1,160 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size log-linear histogram of non negative longs, like HdrHistogram. Values below 32 are
+ * counted exactly, above that each power of two is split into 32 buckets so any value is reported
+ * within about 3% of what was recorded.
+ * <p>
+ * Recording is lock-free and can be done from any number of threads at once.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(index(value));
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * @param reset
+     *            when true the counts are zeroed as they are copied so no value recorded
+     *            concurrently is lost between two snapshots.
+     * @return a copy of the counts recorded so far.
+     */
+    public Snapshot snapshot(boolean reset) {
+        final long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = reset ? counts.getAndSet(i, 0) : counts.get(i);
+        }
+        return new Snapshot(copy, reset ? max.getAndSet(0) : max.get());
+    }
+
+    static int index(long value) {
+        final int msb = 63 - Long.numberOfLeadingZeros(value);
+        if (msb < SUB_BUCKET_BITS)
+            return (int) value;
+        final int shift = msb - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return the smallest value that is counted in the bucket.
+     */
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        final int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * @return the largest value that is counted in the bucket.
+     */
+    static long highestValue(int index) {
+        return index + 1 == BUCKETS ? Long.MAX_VALUE : lowestValue(index + 1) - 1;
+    }
+
+    /**
+     * An immutable copy of a {@link LatencyHistogram}.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long max;
+        private final double mean;
+
+        Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            long count = 0;
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    count += counts[i];
+                    sum += (double) counts[i] * ((lowestValue(i) + highestValue(i)) / 2);
+                }
+            }
+            this.count = count;
+            this.max = max;
+            this.mean = count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * @return the number of values recorded.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return the approximate mean of the values recorded.
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * @param percentile
+         *            between 0 and 100.
+         * @return the highest value of the bucket holding the given percentile, or 0 if nothing
+         *         was recorded.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0)
+                return 0;
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(highestValue(i), max);
+            }
+            return max;
+        }
+
+        /**
+         * @return a new snapshot with the counts of both.
+         */
+        public Snapshot merge(Snapshot other) {
+            final long[] merged = new long[counts.length];
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(merged, Math.max(max, other.max));
+        }
+
+        @Override
+        public String toString() {
+            return "{\"count\": " + count + ", \"mean\": " + (long) mean + ", \"p50\": " + getValueAtPercentile(50) + ", \"p99\": " + getValueAtPercentile(99) + ", \"p999\": "
+                    + getValueAtPercentile(99.9) + ", \"max\": " + max + "}";
+        }
+    }
+}
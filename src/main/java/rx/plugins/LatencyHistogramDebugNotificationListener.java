@@ -0,0 +1,185 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import rx.plugins.DebugNotification.Kind;
+
+/**
+ * A {@link DebugNotificationListener} that keeps no events, only a {@link LatencyHistogram} of the
+ * time spent in each event for every combination of the class of the operator the notification
+ * came from, the class of the operator it is going to and its {@link Kind}. The time of an onNext
+ * includes everything done downstream of it on the same thread.
+ * <p>
+ * Nothing is allocated per event once each combination has been seen. Call
+ * {@link #snapshot(boolean)} periodically to scrape the histograms.
+ */
+public class LatencyHistogramDebugNotificationListener extends DebugNotificationListener<Object> {
+    private static final Kind[] KINDS = Kind.values();
+
+    /**
+     * Stands in for the class when there is no from or to operator.
+     */
+    private static final class None {
+    }
+
+    private static final class TimedFrame extends FrameStack.Frame {
+        long start;
+        LatencyHistogram histogram;
+    }
+
+    private final FrameStack<TimedFrame> frames = new FrameStack<TimedFrame>() {
+        @Override
+        protected TimedFrame newFrame() {
+            return new TimedFrame();
+        }
+    };
+
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Class<?>, LatencyHistogram[]>> histograms = new ConcurrentHashMap<Class<?>, ConcurrentMap<Class<?>, LatencyHistogram[]>>();
+
+    @Override
+    boolean needsCallingThread() {
+        return true;
+    }
+
+    @Override
+    public <T> Object start(DebugNotification<T> n) {
+        final TimedFrame frame = frames.push();
+        frame.histogram = histogram(classOf(n.getFrom()), classOf(n.getTo()), n.getKind());
+        frame.start = System.nanoTime();
+        return frame;
+    }
+
+    @Override
+    public void complete(Object context) {
+        end((TimedFrame) context);
+    }
+
+    @Override
+    public void error(Object context, Throwable e) {
+        end((TimedFrame) context);
+    }
+
+    private void end(TimedFrame frame) {
+        final long end = System.nanoTime();
+        if (frames.pop(frame))
+            frame.histogram.record(end - frame.start);
+    }
+
+    /**
+     * @param reset
+     *            zero the histograms while copying them to only see what happens between two
+     *            snapshots.
+     * @return a copy of all of the histograms that have values.
+     */
+    public Map<Key, LatencyHistogram.Snapshot> snapshot(boolean reset) {
+        final Map<Key, LatencyHistogram.Snapshot> snapshot = new HashMap<Key, LatencyHistogram.Snapshot>();
+        for (Entry<Class<?>, ConcurrentMap<Class<?>, LatencyHistogram[]>> from : histograms.entrySet()) {
+            for (Entry<Class<?>, LatencyHistogram[]> to : from.getValue().entrySet()) {
+                final LatencyHistogram[] byKind = to.getValue();
+                for (int i = 0; i < byKind.length; i++) {
+                    final LatencyHistogram.Snapshot s = byKind[i].snapshot(reset);
+                    if (s.getCount() > 0)
+                        snapshot.put(new Key(nameOf(from.getKey()), nameOf(to.getKey()), KINDS[i]), s);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Zeros all of the histograms.
+     */
+    public void reset() {
+        snapshot(true);
+    }
+
+    private LatencyHistogram histogram(Class<?> from, Class<?> to, Kind kind) {
+        ConcurrentMap<Class<?>, LatencyHistogram[]> byTo = histograms.get(from);
+        if (byTo == null) {
+            byTo = new ConcurrentHashMap<Class<?>, LatencyHistogram[]>();
+            final ConcurrentMap<Class<?>, LatencyHistogram[]> existing = histograms.putIfAbsent(from, byTo);
+            if (existing != null)
+                byTo = existing;
+        }
+        LatencyHistogram[] byKind = byTo.get(to);
+        if (byKind == null) {
+            byKind = new LatencyHistogram[KINDS.length];
+            for (int i = 0; i < byKind.length; i++) {
+                byKind[i] = new LatencyHistogram();
+            }
+            final LatencyHistogram[] existing = byTo.putIfAbsent(to, byKind);
+            if (existing != null)
+                byKind = existing;
+        }
+        return byKind[kind.ordinal()];
+    }
+
+    private static Class<?> classOf(Object o) {
+        return o == null ? None.class : o.getClass();
+    }
+
+    private static String nameOf(Class<?> c) {
+        return c == None.class ? null : c.getName();
+    }
+
+    /**
+     * Identifies one histogram, the operator class names are null when there is no operator.
+     */
+    public static final class Key {
+        private final String from;
+        private final String to;
+        private final Kind kind;
+
+        public Key(String from, String to, Kind kind) {
+            this.from = from;
+            this.to = to;
+            this.kind = kind;
+        }
+
+        public String getFrom() {
+            return from;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            final Key other = (Key) obj;
+            return kind == other.kind && (from == null ? other.from == null : from.equals(other.from)) && (to == null ? other.to == null : to.equals(other.to));
+        }
+
+        @Override
+        public int hashCode() {
+            return ((from == null ? 0 : from.hashCode()) * 31 + (to == null ? 0 : to.hashCode())) * 31 + kind.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "{\"from\": " + (from == null ? "null" : "\"" + from + "\"") + ", \"to\": " + (to == null ? "null" : "\"" + to + "\"") + ", \"type\": \"" + kind + "\"}";
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observer;
+
+/**
+ * A {@link DebugNotificationListener} that keeps track of the subscriptions that are open, from the
+ * {@link DebugNotification.Kind#Subscribe} until the subscriber gets onCompleted or onError or is
+ * unsubscribed, to find the ones that stay open for longer than expected.
+ * <p>
+ * The subscribers are only referenced weakly so this listener never keeps one alive. A subscriber
+ * collected while still open is forgotten and counted in {@link #getCollectedWhileOpen()}. Memory
+ * is bounded by the number of open subscriptions.
+ * <p>
+ * Subscriptions are grouped by the operator the subscriber gets its values from, the last one
+ * applied to the {@link rx.Observable} subscribed to: by its {@link AssemblySite} when the hook has
+ * an {@link AssemblyTracker} that sampled it, otherwise by its class. The operators are only lifted
+ * by the subscribe so the group is settled when it returns. A subscription to an
+ * {@link rx.Observable} without operators is grouped by the class of its
+ * {@link rx.Observable.OnSubscribe}.
+ */
+public class LeakDetectorDebugNotificationListener extends DebugNotificationListener<Object> {
+    private final long maxAgeNanos;
+    private final ConcurrentMap<Integer, Open> open = new ConcurrentHashMap<Integer, Open>();
+    private final ReferenceQueue<Observer<?>> collected = new ReferenceQueue<Observer<?>>();
+    private final AtomicLong collectedWhileOpen = new AtomicLong();
+
+    /**
+     * @param maxAge
+     *            how long a subscription may stay open before it is reported.
+     */
+    public LeakDetectorDebugNotificationListener(long maxAge, TimeUnit unit) {
+        this.maxAgeNanos = unit.toNanos(maxAge);
+    }
+
+    @Override
+    public <T> Object start(DebugNotification<T> n) {
+        final Observer<?> observer = n.getObserver();
+        if (observer == null)
+            return null;
+        switch (n.getKind()) {
+        case Subscribe:
+            expunge();
+            final int id = n.getObserverId();
+            if (open.putIfAbsent(id, new Open(id, observer, group(n), System.nanoTime(), collected)) == null && n.getAssemblySite() == null)
+                // regrouped by the operator lifted by the subscribe once it returns
+                return n;
+            break;
+        case OnCompleted:
+        case OnError:
+        case Unsubscribe:
+            final Open o = open.remove(n.getObserverId());
+            if (o != null)
+                o.clear();
+            break;
+        default:
+            break;
+        }
+        return null;
+    }
+
+    @Override
+    public void complete(Object context) {
+        if (context != null)
+            regroup((DebugNotification<?>) context);
+    }
+
+    @Override
+    public void error(Object context, Throwable e) {
+        complete(context);
+    }
+
+    private void regroup(DebugNotification<?> n) {
+        final Open o = open.get(n.getObserverId());
+        if (o == null)
+            return;
+        final AssemblySite site = n.getSubscribedAssemblySite();
+        final Object from = n.getSubscribedFrom();
+        if (site != null)
+            o.group = site.toString();
+        else if (from != null)
+            o.group = from.getClass().getName();
+    }
+
+    private static String group(DebugNotification<?> n) {
+        if (n.getAssemblySite() != null)
+            return n.getAssemblySite().toString();
+        if (n.getFrom() != null)
+            return n.getFrom().getClass().getName();
+        if (n.getTo() != null)
+            return n.getTo().getClass().getName();
+        final Object sourceFunc = n.getSourceFunc();
+        return sourceFunc == null ? "unknown" : sourceFunc.getClass().getName();
+    }
+
+    private void expunge() {
+        Reference<?> ref;
+        while ((ref = collected.poll()) != null) {
+            final Open o = (Open) ref;
+            if (open.remove(o.id, o))
+                collectedWhileOpen.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of subscriptions currently open.
+     */
+    public int getOpenCount() {
+        expunge();
+        return open.size();
+    }
+
+    /**
+     * @return the number of subscribers that were garbage collected without being completed,
+     *         failed or unsubscribed.
+     */
+    public long getCollectedWhileOpen() {
+        expunge();
+        return collectedWhileOpen.get();
+    }
+
+    /**
+     * @return the subscriptions that have been open for longer than the maximum age.
+     */
+    public List<OpenSubscription> getSuspects() {
+        expunge();
+        final long now = System.nanoTime();
+        final List<OpenSubscription> suspects = new ArrayList<OpenSubscription>();
+        for (Open o : open.values()) {
+            final long age = now - o.start;
+            final Observer<?> observer = o.get();
+            if (age > maxAgeNanos && observer != null)
+                suspects.add(new OpenSubscription(DebugRegistry.getInstance().describe(observer).getName(), o.group, age));
+        }
+        return suspects;
+    }
+
+    /**
+     * @return the suspects counted by the group they were assembled in.
+     */
+    public Map<String, Group> getSuspectsByGroup() {
+        final Map<String, Group> groups = new HashMap<String, Group>();
+        for (OpenSubscription s : getSuspects()) {
+            Group g = groups.get(s.getGroup());
+            if (g == null)
+                groups.put(s.getGroup(), g = new Group());
+            g.count++;
+            if (s.getAgeNanos() > g.oldestAgeNanos) {
+                g.oldestAgeNanos = s.getAgeNanos();
+                g.oldest = s.getObserver();
+            }
+        }
+        return groups;
+    }
+
+    private static final class Open extends WeakReference<Observer<?>> {
+        final int id;
+        volatile String group;
+        final long start;
+
+        Open(int id, Observer<?> observer, String group, long start, ReferenceQueue<Observer<?>> queue) {
+            super(observer, queue);
+            this.id = id;
+            this.group = group;
+            this.start = start;
+        }
+    }
+
+    /**
+     * A subscription open for longer than the maximum age.
+     */
+    public static final class OpenSubscription {
+        private final String observer;
+        private final String group;
+        private final long ageNanos;
+
+        OpenSubscription(String observer, String group, long ageNanos) {
+            this.observer = observer;
+            this.group = group;
+            this.ageNanos = ageNanos;
+        }
+
+        public String getObserver() {
+            return observer;
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        public long getAgeNanos() {
+            return ageNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "{\"observer\": " + DebugNotification.quote(observer) + ", \"group\": " + DebugNotification.quote(group) + ", \"ageNanos\": " + ageNanos + "}";
+        }
+    }
+
+    /**
+     * The suspects of one group.
+     */
+    public static final class Group {
+        private int count;
+        private long oldestAgeNanos;
+        private String oldest;
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getOldestAgeNanos() {
+            return oldestAgeNanos;
+        }
+
+        /**
+         * @return the name of the subscriber open the longest.
+         */
+        public String getOldest() {
+            return oldest;
+        }
+
+        @Override
+        public String toString() {
+            return "{\"count\": " + count + ", \"oldestAgeNanos\": " + oldestAgeNanos + ", \"oldest\": " + DebugNotification.quote(oldest) + "}";
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link DebugNotificationListener} that appends a fixed size binary record for the start and
+ * the end of every event to a rolling set of memory mapped files, to be read later with
+ * {@link MappedTraceReader}. No strings are built while recording, the class names of the
+ * subscribers and operators are written once to a string table and referred to by id.
+ * <p>
+ * The files are named {@code <prefix>.<segment>.trace} with the string table in
+ * {@code <prefix>.strings}. When more than the maximum number of segments have been written the
+ * oldest is deleted.
+ */
+public class MappedTraceDebugNotificationListener extends DebugNotificationListener<Object> implements Closeable {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    static final String SEGMENT_SUFFIX = ".trace";
+    static final String STRINGS_SUFFIX = ".strings";
+
+    /*
+     * Record layout, all values in big endian:
+     * 0 byte type, 1 byte kind, 2 short unused, 4 int observer class string id,
+     * 8 long sequence, 16 long System.nanoTime(), 24 long thread id,
+     * 32 int from class string id (exception class for errors), 36 int to class string id,
+     * 40 long n, 48 int observer id, 52 int from id, 56 int to id (see DebugRegistry), 60 int unused
+     */
+    static final int RECORD_SIZE = 64;
+    static final byte START = 1;
+    static final byte END = 2;
+    static final byte ERROR = 3;
+
+    private static final class SeqFrame extends FrameStack.Frame {
+        long seq;
+    }
+
+    private final FrameStack<SeqFrame> frames = new FrameStack<SeqFrame>() {
+        @Override
+        protected SeqFrame newFrame() {
+            return new SeqFrame();
+        }
+    };
+
+    private static final class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+        final AtomicLong position = new AtomicLong();
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File directory;
+    private final String prefix;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final AtomicLong sequence = new AtomicLong();
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private volatile Segment current;
+    private int nextSegment;
+    private volatile boolean closed;
+
+    private final ConcurrentHashMap<Class<?>, Integer> stringIds = new ConcurrentHashMap<Class<?>, Integer>();
+    private final AtomicInteger nextStringId = new AtomicInteger(1);
+    private final RandomAccessFile strings;
+
+    /**
+     * @param directory
+     *            where to write the files.
+     * @param prefix
+     *            the start of the file names.
+     * @param segmentSize
+     *            the size in bytes of each file, rounded down to a whole number of records.
+     * @param maxSegments
+     *            the number of files to keep.
+     * @throws IOException
+     */
+    public MappedTraceDebugNotificationListener(File directory, String prefix, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize < RECORD_SIZE)
+            throw new IllegalArgumentException("segmentSize must hold at least one record");
+        if (maxSegments < 1)
+            throw new IllegalArgumentException("maxSegments must be greater than zero");
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+        this.maxSegments = maxSegments;
+        this.strings = new RandomAccessFile(new File(directory, prefix + STRINGS_SUFFIX), "rw");
+        this.strings.setLength(0);
+        synchronized (this) {
+            roll(null);
+        }
+    }
+
+    @Override
+    boolean needsCallingThread() {
+        return true;
+    }
+
+    @Override
+    public <T> Object start(DebugNotification<T> n) {
+        final SeqFrame frame = frames.push();
+        frame.seq = sequence.getAndIncrement();
+        final Object observer = n.getObserver();
+        final Object from = n.getFrom();
+        final Object to = n.getTo();
+        write(START, n.getKind().ordinal(), frame.seq, Thread.currentThread().getId(), stringId(observer), stringId(from), stringId(to), n.getN(), n.getObserverId(), n.getFromId(), n.getToId());
+        return frame;
+    }
+
+    @Override
+    public void complete(Object context) {
+        final SeqFrame frame = (SeqFrame) context;
+        if (frames.pop(frame))
+            write(END, 0, frame.seq, Thread.currentThread().getId(), 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void error(Object context, Throwable e) {
+        final SeqFrame frame = (SeqFrame) context;
+        if (frames.pop(frame))
+            write(ERROR, 0, frame.seq, Thread.currentThread().getId(), 0, stringId(e), 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Flushes the mapped files to disk and stops recording.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        strings.close();
+    }
+
+    private void write(byte type, int kind, long seq, long threadId, int observerName, int fromName, int toName, long n, int observerId, int fromId, int toId) {
+        if (closed)
+            return;
+        Segment segment = current;
+        long p;
+        while ((p = segment.position.getAndAdd(RECORD_SIZE)) + RECORD_SIZE > segmentSize) {
+            segment = next(segment);
+            if (segment == null)
+                return;
+        }
+        final int i = (int) p;
+        final ByteBuffer b = segment.buffer;
+        b.put(i + 1, (byte) kind);
+        b.putInt(i + 4, observerName);
+        b.putLong(i + 8, seq);
+        b.putLong(i + 16, System.nanoTime());
+        b.putLong(i + 24, threadId);
+        b.putInt(i + 32, fromName);
+        b.putInt(i + 36, toName);
+        b.putLong(i + 40, n);
+        b.putInt(i + 48, observerId);
+        b.putInt(i + 52, fromId);
+        b.putInt(i + 56, toId);
+        // the type goes last so a reader never sees a partially written record as valid.
+        b.put(i, type);
+    }
+
+    private synchronized Segment next(Segment full) {
+        if (closed)
+            return null;
+        if (current != full)
+            return current;
+        try {
+            roll(full);
+        } catch (IOException e) {
+            closed = true;
+            return null;
+        }
+        return current;
+    }
+
+    private void roll(Segment full) throws IOException {
+        if (full != null)
+            full.buffer.force();
+        final File file = new File(directory, prefix + "." + String.format(Locale.ROOT, "%08d", nextSegment++) + SEGMENT_SUFFIX);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            final Segment segment = new Segment(file, buffer);
+            segments.add(segment);
+            current = segment;
+        } finally {
+            raf.close();
+        }
+        while (segments.size() > maxSegments) {
+            segments.removeFirst().file.delete();
+        }
+    }
+
+    private int stringId(Object o) {
+        if (o == null)
+            return 0;
+        final Class<?> c = o.getClass();
+        final Integer id = stringIds.get(c);
+        if (id != null)
+            return id;
+        return addString(c);
+    }
+
+    private synchronized int addString(Class<?> c) {
+        Integer id = stringIds.get(c);
+        if (id != null)
+            return id;
+        id = nextStringId.getAndIncrement();
+        if (!closed) {
+            try {
+                final byte[] name = c.getName().getBytes(UTF8);
+                strings.writeInt(id);
+                strings.writeInt(name.length);
+                strings.write(name);
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+        stringIds.put(c, id);
+        return id;
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import static rx.plugins.MappedTraceDebugNotificationListener.END;
+import static rx.plugins.MappedTraceDebugNotificationListener.ERROR;
+import static rx.plugins.MappedTraceDebugNotificationListener.RECORD_SIZE;
+import static rx.plugins.MappedTraceDebugNotificationListener.SEGMENT_SUFFIX;
+import static rx.plugins.MappedTraceDebugNotificationListener.START;
+import static rx.plugins.MappedTraceDebugNotificationListener.STRINGS_SUFFIX;
+import static rx.plugins.MappedTraceDebugNotificationListener.UTF8;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import rx.plugins.DebugNotification.Kind;
+
+/**
+ * Reads the files written by {@link MappedTraceDebugNotificationListener} back into events, oldest
+ * first.
+ */
+public class MappedTraceReader {
+    private static final Kind[] KINDS = Kind.values();
+
+    private final File directory;
+    private final String prefix;
+
+    public MappedTraceReader(File directory, String prefix) {
+        this.directory = directory;
+        this.prefix = prefix;
+    }
+
+    /**
+     * @return all of the events still in the files ordered by when they started.
+     * @throws IOException
+     */
+    public List<Event> read() throws IOException {
+        final Map<Integer, String> strings = readStrings();
+        final TreeMap<Long, Event> events = new TreeMap<Long, Event>();
+        for (File segment : segments()) {
+            final RandomAccessFile raf = new RandomAccessFile(segment, "r");
+            try {
+                final ByteBuffer b = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                for (int i = 0; i + RECORD_SIZE <= b.limit(); i += RECORD_SIZE) {
+                    final byte type = b.get(i);
+                    final long seq = b.getLong(i + 8);
+                    if (type == START) {
+                        events.put(seq, new Event(seq, KINDS[b.get(i + 1)], b.getLong(i + 24), b.getLong(i + 16), strings.get(b.getInt(i + 4)), strings.get(b.getInt(i + 32)), strings.get(b
+                                .getInt(i + 36)), b.getLong(i + 40), b.getInt(i + 48), b.getInt(i + 52), b.getInt(i + 56)));
+                    } else if (type == END || type == ERROR) {
+                        final Event event = events.get(seq);
+                        if (event != null) {
+                            event.end = b.getLong(i + 16);
+                            if (type == ERROR)
+                                event.error = strings.get(b.getInt(i + 32));
+                        }
+                    }
+                }
+            } finally {
+                raf.close();
+            }
+        }
+        return new ArrayList<Event>(events.values());
+    }
+
+    /**
+     * Writes the events as a JSON array.
+     *
+     * @throws IOException
+     */
+    public void toJson(Appendable out) throws IOException {
+        out.append("[\n");
+        boolean first = true;
+        for (Event event : read()) {
+            if (!first)
+                out.append(",\n");
+            out.append("  ").append(event.toString());
+            first = false;
+        }
+        out.append("\n]\n");
+    }
+
+    private Map<Integer, String> readStrings() throws IOException {
+        final Map<Integer, String> strings = new HashMap<Integer, String>();
+        final File file = new File(directory, prefix + STRINGS_SUFFIX);
+        if (!file.exists())
+            return strings;
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            while (true) {
+                final int id;
+                try {
+                    id = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                final byte[] name = new byte[in.readInt()];
+                in.readFully(name);
+                strings.put(id, new String(name, UTF8));
+            }
+        } finally {
+            in.close();
+        }
+        return strings;
+    }
+
+    private File[] segments() {
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix + ".") && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null)
+            return new File[0];
+        // the segment numbers are zero padded so the names sort in the order they were written.
+        Arrays.sort(files);
+        return files;
+    }
+
+    public static final class Event {
+        private final long sequence;
+        private final Kind kind;
+        private final long threadId;
+        private final long start;
+        private long end = -1;
+        private final String observer;
+        private final String from;
+        private final String to;
+        private final long n;
+        private final int observerId;
+        private final int fromId;
+        private final int toId;
+        private String error;
+
+        Event(long sequence, Kind kind, long threadId, long start, String observer, String from, String to, long n, int observerId, int fromId, int toId) {
+            this.sequence = sequence;
+            this.kind = kind;
+            this.threadId = threadId;
+            this.start = start;
+            this.observer = observer;
+            this.from = from;
+            this.to = to;
+            this.n = n;
+            this.observerId = observerId;
+            this.fromId = fromId;
+            this.toId = toId;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return the {@link System#nanoTime()} the event ended or -1 if it never did.
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * @return the class name of the observer.
+         */
+        public String getObserver() {
+            return observer;
+        }
+
+        /**
+         * @return the class name of the operator the notification came from or null.
+         */
+        public String getFrom() {
+            return from;
+        }
+
+        /**
+         * @return the class name of the operator the notification is going to or null.
+         */
+        public String getTo() {
+            return to;
+        }
+
+        public long getN() {
+            return n;
+        }
+
+        public int getObserverId() {
+            return observerId;
+        }
+
+        public int getFromId() {
+            return fromId;
+        }
+
+        public int getToId() {
+            return toId;
+        }
+
+        /**
+         * @return the class name of the exception thrown by the event or null.
+         */
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder str = new StringBuilder("{");
+            str.append("\"seq\": ").append(sequence);
+            if (end != -1)
+                str.append(", \"ns_duration\": ").append(end - start);
+            str.append(", \"threadId\": ").append(threadId);
+            str.append(", \"type\": \"").append(kind).append("\"");
+            if (kind == Kind.Request)
+                str.append(", \"n\": ").append(n);
+            if (observer != null)
+                str.append(", \"observer\": \"").append(observer).append("#").append(observerId).append("\"");
+            if (from != null)
+                str.append(", \"from\": \"").append(from).append("#").append(fromId).append("\"");
+            if (to != null)
+                str.append(", \"to\": \"").append(to).append("#").append(toId).append("\"");
+            if (error != null)
+                str.append(", \"exception\": \"").append(error).append("\"");
+            str.append("}");
+            return str.toString();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import rx.functions.Func0;
+
+/**
+ * A bounded lock-free queue for many producers and a single consumer over slots allocated once
+ * up front. A producer claims the next slot, fills it in place and publishes it, the consumer
+ * reads the oldest published slot and releases it to be filled again, so nothing is allocated
+ * per element. Each slot has a sequence number that tells the producers when it is free and the
+ * consumer when it has been filled.
+ */
+final class MpscArrayQueue<E> {
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    MpscArrayQueue(int capacity, Func0<? extends E> factory) {
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.slots = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = factory.call();
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Claims the next slot, which the caller then fills through {@link #slot(long)} and hands to
+     * the consumer with {@link #publish(long)}.
+     *
+     * @return the position of the slot or -1 if the queue is full.
+     */
+    long claim() {
+        long pos = tail.get();
+        while (true) {
+            final long dif = sequences.get((int) pos & mask) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1))
+                    return pos;
+                pos = tail.get();
+            } else if (dif < 0) {
+                return -1;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    E slot(long pos) {
+        return (E) slots[(int) pos & mask];
+    }
+
+    void publish(long pos) {
+        sequences.lazySet((int) pos & mask, pos + 1);
+    }
+
+    /**
+     * Must only be called from the consumer thread.
+     *
+     * @return the oldest published slot, which stays the consumer's until {@link #release()}, or
+     *         null if the queue is empty.
+     */
+    E peek() {
+        final long pos = head.get();
+        final int i = (int) pos & mask;
+        if (sequences.get(i) != pos + 1)
+            return null;
+        @SuppressWarnings("unchecked")
+        final E e = (E) slots[i];
+        return e;
+    }
+
+    /**
+     * Must only be called from the consumer thread after {@link #peek()} returned a slot.
+     */
+    void release() {
+        final long pos = head.get();
+        sequences.lazySet((int) pos & mask, pos + mask + 1);
+        head.lazySet(pos + 1);
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,375 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import rx.plugins.DebugNotification.Kind;
+
+/**
+ * A {@link DebugNotificationListener} that writes every notification as one line of JSON to a
+ * {@link WritableByteChannel} or a {@link Writer}, for log pipelines and tools that read newline
+ * delimited JSON. Unlike {@link DebugNotification#toString()} the output is always valid JSON.
+ * <p>
+ * Each thread encodes its lines into its own reused buffer with the names of the subscribers and
+ * operators copied from the UTF-8 encoded JSON kept in their {@link DebugRegistry.Descriptor}, and
+ * appends them to a buffer of its own. A full buffer is handed to a writer thread that owns the
+ * output, the thread emitting the values never waits for the I/O or for the other threads. The
+ * writer also takes the buffers that aren't full when they get older than the flush interval, and
+ * {@link #flush()} takes them all. The lines of a thread are written in order, those of different
+ * threads are interleaved a buffer at a time so readers order them by their "seq".
+ * <p>
+ * At most {@link #MAX_QUEUED} buffers wait for the writer, if it falls further behind the new lines
+ * are dropped and counted by {@link #getDropped()}. If writing fails nothing more is written and
+ * the exception is kept in {@link #getFailure()}.
+ */
+public class NdjsonDebugNotificationListener extends DebugNotificationListener<Object> implements Closeable {
+    private static final Kind[] KINDS = Kind.values();
+    private static final byte[][] TYPES = new byte[KINDS.length][];
+
+    static {
+        for (Kind kind : KINDS) {
+            TYPES[kind.ordinal()] = JsonEncoder.encode(kind.name());
+        }
+    }
+
+    /**
+     * The most buffers handed to the writer that it hasn't written yet.
+     */
+    static final int MAX_QUEUED = 16;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * The buffer a thread appends its lines to, only swapped by another thread while holding its
+     * lock.
+     */
+    private final class LineBuffer {
+        final JsonEncoder encoder = new JsonEncoder(256);
+        final Thread owner = Thread.currentThread();
+        ByteBuffer bytes = ByteBuffer.allocate(bufferSize);
+
+        synchronized void append(JsonEncoder e) {
+            final int length = e.size();
+            if (bytes.remaining() < length && !handOff())
+                return;
+            if (bytes.remaining() < length) {
+                // longer than a whole buffer, it goes to the writer on its own
+                if (queued.incrementAndGet() > MAX_QUEUED) {
+                    queued.decrementAndGet();
+                    dropped.incrementAndGet();
+                    return;
+                }
+                full.add(ByteBuffer.wrap(Arrays.copyOf(e.array(), length)));
+                LockSupport.unpark(thread);
+                return;
+            }
+            bytes.put(e.array(), 0, length);
+        }
+
+        /**
+         * Queues the buffer for the writer and takes an empty one, drops the line being appended
+         * if the writer is too far behind.
+         *
+         * @return false if the buffer couldn't be handed off.
+         */
+        synchronized boolean handOff() {
+            if (bytes.position() == 0)
+                return true;
+            if (queued.incrementAndGet() > MAX_QUEUED) {
+                queued.decrementAndGet();
+                dropped.incrementAndGet();
+                return false;
+            }
+            bytes.flip();
+            full.add(bytes);
+            final ByteBuffer next = free.poll();
+            bytes = next != null ? next : ByteBuffer.allocate(bufferSize);
+            LockSupport.unpark(thread);
+            return true;
+        }
+    }
+
+    private final ThreadLocal<LineBuffer> buffers = new ThreadLocal<LineBuffer>() {
+        @Override
+        protected LineBuffer initialValue() {
+            final LineBuffer b = new LineBuffer();
+            lineBuffers.add(b);
+            return b;
+        }
+    };
+
+    private final WritableByteChannel channel;
+    private final Writer writer;
+    private final CharsetDecoder decoder;
+    private final CharBuffer chars;
+    private final int bufferSize;
+    private final long flushIntervalNanos;
+    private final Queue<LineBuffer> lineBuffers = new ConcurrentLinkedQueue<LineBuffer>();
+    /**
+     * The buffers waiting for the writer, those of each thread in the order it filled them.
+     */
+    private final Queue<ByteBuffer> full = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    /**
+     * Held while writing to the output, by the writer thread or {@link #flush()}.
+     */
+    private final Object writeLock = new Object();
+    private final Thread thread;
+    private long lastFlush = System.nanoTime();
+    private volatile IOException failure;
+
+    /**
+     * @param channel
+     *            where the lines are written.
+     * @param bufferSize
+     *            the size in bytes of the buffer of each thread, it is written out when it is full.
+     * @param flushInterval
+     *            the most time a line waits in the buffer when events keep coming.
+     */
+    public NdjsonDebugNotificationListener(WritableByteChannel channel, int bufferSize, long flushInterval, TimeUnit unit) {
+        this(channel, null, bufferSize, flushInterval, unit);
+    }
+
+    /**
+     * @param writer
+     *            where the lines are written.
+     * @param bufferSize
+     *            the size in bytes of the buffer of each thread, it is written out when it is full.
+     * @param flushInterval
+     *            the most time a line waits in the buffer when events keep coming.
+     */
+    public NdjsonDebugNotificationListener(Writer writer, int bufferSize, long flushInterval, TimeUnit unit) {
+        this(null, writer, bufferSize, flushInterval, unit);
+    }
+
+    private NdjsonDebugNotificationListener(WritableByteChannel channel, Writer writer, int bufferSize, long flushInterval, TimeUnit unit) {
+        if (channel == null && writer == null)
+            throw new IllegalArgumentException("The output must not be null");
+        if (bufferSize < 1)
+            throw new IllegalArgumentException("bufferSize must be greater than zero");
+        this.channel = channel;
+        this.writer = writer;
+        this.bufferSize = bufferSize;
+        this.flushIntervalNanos = unit.toNanos(flushInterval);
+        this.decoder = writer == null ? null : MappedTraceDebugNotificationListener.UTF8.newDecoder();
+        this.chars = writer == null ? null : CharBuffer.allocate(bufferSize);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "RxDebugNdjson-" + threadCount.incrementAndGet());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    boolean needsCallingThread() {
+        return true;
+    }
+
+    @Override
+    public <T> Object start(DebugNotification<T> n) {
+        if (failure != null)
+            return null;
+        final LineBuffer b = buffers.get();
+        final JsonEncoder e = b.encoder;
+        e.reset();
+        encode(n, e);
+        b.append(e);
+        return null;
+    }
+
+    private static void encode(DebugNotification<?> n, JsonEncoder e) {
+        final DebugRegistry registry = DebugRegistry.getInstance();
+        final Kind kind = n.getKind();
+        e.ascii("{\"type\":").raw(TYPES[kind.ordinal()]);
+        e.ascii(",\"nanos\":").number(System.nanoTime());
+        e.ascii(",\"thread\":").number(Thread.currentThread().getId());
+        e.ascii(",\"seq\":").number(n.getSequence());
+        e.ascii(",\"threadSeq\":").number(n.getThreadSequence());
+        name(e, ",\"observer\":", ",\"observerId\":", registry.get(n.getObserverId()));
+        name(e, ",\"from\":", ",\"fromId\":", registry.get(n.getFromId()));
+        name(e, ",\"to\":", ",\"toId\":", registry.get(n.getToId()));
+        switch (kind) {
+        case OnNext:
+            e.ascii(",\"value\":").value(n.getCapturedValue());
+            break;
+        case OnError:
+            final Throwable t = n.getThrowable();
+            e.ascii(",\"exception\":").string(t.getClass().getName());
+            e.ascii(",\"message\":").string(t.getMessage());
+            break;
+        case Request:
+            e.ascii(",\"n\":").number(n.getN());
+            break;
+        case Subscribe:
+            if (n.getSource() != null)
+                name(e, ",\"source\":", ",\"sourceId\":", registry.describe(n.getSource()));
+            name(e, ",\"sourceFunc\":", ",\"sourceFuncId\":", registry.get(n.getSourceFuncId()));
+            break;
+        default:
+            break;
+        }
+        if (n.getAssemblySite() != null)
+            e.ascii(",\"assembly\":").string(n.getAssemblySite().toString());
+        e.ascii("}\n");
+    }
+
+    private static void name(JsonEncoder e, String field, String idField, DebugRegistry.Descriptor d) {
+        if (d == null)
+            return;
+        e.ascii(field).raw(d.json());
+        e.ascii(idField).number(d.getId());
+    }
+
+    private void writeLoop() {
+        while (failure == null) {
+            synchronized (writeLock) {
+                try {
+                    if (failure != null)
+                        return;
+                    if (System.nanoTime() - lastFlush >= flushIntervalNanos)
+                        handOffAll();
+                    drain();
+                } catch (IOException ex) {
+                    failure = ex;
+                    return;
+                }
+            }
+            LockSupport.parkNanos(this, flushIntervalNanos);
+        }
+    }
+
+    /**
+     * Writes out what is buffered.
+     */
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            if (failure != null)
+                throw failure;
+            try {
+                handOffAll();
+                drain();
+                if (writer != null)
+                    writer.flush();
+            } catch (IOException ex) {
+                failure = ex;
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Flushes and closes the output.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            try {
+                if (failure == null) {
+                    handOffAll();
+                    drain();
+                }
+            } finally {
+                failure = new IOException("closed");
+                LockSupport.unpark(thread);
+                if (channel != null)
+                    channel.close();
+                else
+                    writer.close();
+            }
+        }
+    }
+
+    /**
+     * @return the exception that stopped the output or null if it is still running.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the number of lines dropped because the writer was too far behind.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Hands the buffers of every thread to the writer and forgets the threads that have ended.
+     */
+    private void handOffAll() {
+        lastFlush = System.nanoTime();
+        final Iterator<LineBuffer> i = lineBuffers.iterator();
+        while (i.hasNext()) {
+            final LineBuffer b = i.next();
+            if (b.handOff() && !b.owner.isAlive())
+                i.remove();
+        }
+    }
+
+    /**
+     * Writes the buffers handed off, must hold {@link #writeLock}.
+     */
+    private void drain() throws IOException {
+        ByteBuffer bytes;
+        while ((bytes = full.poll()) != null) {
+            try {
+                write(bytes);
+            } finally {
+                queued.decrementAndGet();
+                if (bytes.capacity() == bufferSize) {
+                    bytes.clear();
+                    free.add(bytes);
+                }
+            }
+        }
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        if (channel != null) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            return;
+        }
+        // lines are whole so the bytes never end in the middle of a character
+        decoder.reset();
+        CoderResult result;
+        do {
+            result = decoder.decode(bytes, chars, true);
+            chars.flip();
+            writer.write(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+            chars.clear();
+        } while (result.isOverflow());
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import rx.Observable.Operator;
+import rx.Observer;
+
+/**
+ * A {@link DebugNotificationListener} that keeps the live graph of subscriber to operator to
+ * subscriber edges up to date as the notifications go by instead of recording the events.
+ * <p>
+ * Every subscriber seen is a link with the operator it receives from and the operator it feeds
+ * into, keyed by its {@link DebugRegistry} id. The subscriber an operator emits to for the same
+ * subscription is the one {@link DebugNotification#getDownstreamId()} names, so the chains of
+ * several subscriptions to the same {@link rx.Observable} stay apart even though they share the
+ * operator instances. The operators of a link are only known once the
+ * {@link rx.operators.DebugSubscriber} wrapping it has been bound to them so the link is updated
+ * by each notification that brings a new one, the usual cost is one map lookup and three
+ * compares.
+ * <p>
+ * The subscribers are only referenced weakly, like the {@link LeakDetectorDebugNotificationListener}
+ * does, so this listener never keeps one alive. A subscriber that completes, fails or unsubscribes
+ * leaves the graph and the events it still gets are ignored. Its entry stays until it is collected
+ * so a late request doesn't add it again, and a subscriber collected without ending, for instance
+ * because the {@link DebugFilter} doesn't pass its terminal notifications, is dropped then too.
+ * Memory is bounded by the number of subscribers still reachable.
+ */
+public class OperatorGraphDebugNotificationListener extends DebugNotificationListener<Object> {
+    private final ConcurrentMap<Integer, Node> subscribers = new ConcurrentHashMap<Integer, Node>();
+    /**
+     * The id of the subscriber emitting into the operator for the id of the one the operator emits
+     * to.
+     */
+    private final ConcurrentMap<Integer, Integer> upstream = new ConcurrentHashMap<Integer, Integer>();
+    private final ReferenceQueue<Observer<?>> collected = new ReferenceQueue<Observer<?>>();
+
+    @Override
+    public <T> Object start(DebugNotification<T> n) {
+        final Observer<?> observer = n.getObserver();
+        if (observer == null)
+            return null;
+        final Node node = node(n.getObserverId(), observer);
+        if (node.ended)
+            return null;
+        switch (n.getKind()) {
+        case OnCompleted:
+        case OnError:
+        case Unsubscribe:
+            node.ended = true;
+            break;
+        default:
+            update(node, n);
+            break;
+        }
+        return null;
+    }
+
+    private void update(Node node, DebugNotification<?> n) {
+        final Operator<?, ?> from = n.getFrom();
+        if (from != null && from != node.from)
+            node.from = from;
+        final Operator<?, ?> to = n.getTo();
+        if (to != null && to != node.to)
+            node.to = to;
+        final int downstream = n.getDownstreamId();
+        if (downstream != 0 && downstream != node.downstream) {
+            node.downstream = downstream;
+            upstream.put(downstream, node.id);
+        }
+    }
+
+    private Node node(int id, Observer<?> observer) {
+        Node node = subscribers.get(id);
+        if (node == null) {
+            expunge();
+            node = new Node(id, observer, collected);
+            final Node existing = subscribers.putIfAbsent(id, node);
+            if (existing != null)
+                node = existing;
+        }
+        return node;
+    }
+
+    private void expunge() {
+        Reference<?> ref;
+        while ((ref = collected.poll()) != null) {
+            final Node node = (Node) ref;
+            if (subscribers.remove(node.id, node)) {
+                upstream.remove(node.id);
+                if (node.downstream != 0)
+                    upstream.remove(node.downstream, node.id);
+            }
+        }
+    }
+
+    /**
+     * @return the node of a subscriber that hasn't ended and hasn't been collected or null.
+     */
+    private Node live(int id) {
+        final Node node = subscribers.get(id);
+        return node == null || node.ended || node.get() == null ? null : node;
+    }
+
+    /**
+     * @return the number of live subscribers in the graph.
+     */
+    public int getSubscriberCount() {
+        expunge();
+        int count = 0;
+        for (Node node : subscribers.values()) {
+            if (!node.ended)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of operators with at least one live subscriber.
+     */
+    public int getOperatorCount() {
+        expunge();
+        final Map<Operator<?, ?>, Boolean> operators = new IdentityHashMap<Operator<?, ?>, Boolean>();
+        for (Node node : subscribers.values()) {
+            if (node.ended)
+                continue;
+            if (node.from != null)
+                operators.put(node.from, Boolean.TRUE);
+            if (node.to != null)
+                operators.put(node.to, Boolean.TRUE);
+        }
+        return operators.size();
+    }
+
+    /**
+     * @return a copy of every edge of the graph in no particular order.
+     */
+    public List<Link> getSnapshot() {
+        expunge();
+        final List<Link> snapshot = new ArrayList<Link>(subscribers.size());
+        for (Node node : subscribers.values()) {
+            final Link link = node.ended ? null : node.link();
+            if (link != null)
+                snapshot.add(link);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Walks the graph up and down from the subscriber of a notification, for instance to find
+     * which chain a slow onNext is in.
+     *
+     * @param observer
+     *            the {@link DebugNotification#getObserver()} of a notification.
+     * @return the links of the subscription the subscriber is in ordered from the source to the
+     *         final subscriber or an empty list if the subscriber isn't live.
+     */
+    public List<Link> getChain(Observer<?> observer) {
+        expunge();
+        final Node start = live(DebugRegistry.getInstance().id(observer));
+        final Link first = start == null ? null : start.link();
+        if (first == null)
+            return Collections.emptyList();
+        final LinkedList<Link> chain = new LinkedList<Link>();
+        final Set<Integer> visited = new HashSet<Integer>();
+        chain.add(first);
+        visited.add(start.id);
+
+        Integer id = upstream.get(start.id);
+        Node node;
+        while (id != null && visited.add(id) && (node = live(id)) != null) {
+            final Link link = node.link();
+            if (link == null)
+                break;
+            chain.addFirst(link);
+            id = upstream.get(id);
+        }
+        int down = start.downstream;
+        while (down != 0 && visited.add(down) && (node = live(down)) != null) {
+            final Link link = node.link();
+            if (link == null)
+                break;
+            chain.addLast(link);
+            down = node.downstream;
+        }
+        return new ArrayList<Link>(chain);
+    }
+
+    private static final class Node extends WeakReference<Observer<?>> {
+        final int id;
+        volatile Operator<?, ?> from;
+        volatile Operator<?, ?> to;
+        volatile int downstream;
+        volatile boolean ended;
+
+        Node(int id, Observer<?> observer, ReferenceQueue<Observer<?>> queue) {
+            super(observer, queue);
+            this.id = id;
+        }
+
+        /**
+         * @return the link or null if the subscriber has just been collected.
+         */
+        Link link() {
+            final Observer<?> observer = get();
+            return observer == null ? null : new Link(observer, from, to);
+        }
+    }
+
+    /**
+     * One subscriber and the operators on either side of it, either may be null at the ends of a
+     * chain.
+     */
+    public static final class Link {
+        private final Observer<?> observer;
+        private final Operator<?, ?> from;
+        private final Operator<?, ?> to;
+
+        Link(Observer<?> observer, Operator<?, ?> from, Operator<?, ?> to) {
+            this.observer = observer;
+            this.from = from;
+            this.to = to;
+        }
+
+        public Observer<?> getObserver() {
+            return observer;
+        }
+
+        public Operator<?, ?> getFrom() {
+            return from;
+        }
+
+        public Operator<?, ?> getTo() {
+            return to;
+        }
+
+        @Override
+        public String toString() {
+            return "{\"observer\": " + name(observer) + ", \"from\": " + name(from) + ", \"to\": " + name(to) + "}";
+        }
+
+        private static String name(Object o) {
+            return o == null ? "null" : "\"" + o.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(o)) + "\"";
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.plugins.DebugNotification.Kind;
+
+/**
+ * A {@link DebugNotificationListener} that splits the time of each event into the time spent in
+ * the operator itself and the time spent in the events nested inside of it. Since onNext is called
+ * synchronously down the chain the duration of an upstream onNext includes everything downstream
+ * of it, which hides where the time really goes.
+ * <p>
+ * Each event is attributed to the code that runs during it: the operator the notification goes to
+ * for onNext, onError, onCompleted and onStart, or the final subscriber when there is no operator,
+ * the operator it comes from for a request and the {@link rx.Observable.OnSubscribe} for a
+ * subscribe. The nested events form a tree of call paths whose totals can be read per operator
+ * with {@link #getOperatorTimes()} or written as folded stacks for flame graph tools with
+ * {@link #writeFoldedStacks(Appendable)}.
+ */
+public class ProfilingDebugNotificationListener extends DebugNotificationListener<Object> {
+    private static final Kind[] KINDS = Kind.values();
+
+    private static final class ProfileFrame extends FrameStack.Frame {
+        long start;
+        long children;
+        Node node;
+    }
+
+    private final FrameStack<ProfileFrame> frames = new FrameStack<ProfileFrame>() {
+        @Override
+        protected ProfileFrame newFrame() {
+            return new ProfileFrame();
+        }
+    };
+
+    /**
+     * The frame names of each class by {@link Kind}, so they are built once and the children of a
+     * node can be found by the same string instance.
+     */
+    private final ConcurrentMap<Class<?>, String[]> names = new ConcurrentHashMap<Class<?>, String[]>();
+    private volatile Node root = new Node(null);
+
+    @Override
+    boolean needsCallingThread() {
+        return true;
+    }
+
+    @Override
+    public <T> Object start(DebugNotification<T> n) {
+        final ProfileFrame frame = frames.push();
+        final ProfileFrame parent = frames.below(frame);
+        frame.node = (parent == null ? root : parent.node).child(name(n));
+        frame.children = 0;
+        frame.start = System.nanoTime();
+        return frame;
+    }
+
+    @Override
+    public void complete(Object context) {
+        end((ProfileFrame) context);
+    }
+
+    @Override
+    public void error(Object context, Throwable e) {
+        end((ProfileFrame) context);
+    }
+
+    private void end(ProfileFrame frame) {
+        final long end = System.nanoTime();
+        if (!frames.pop(frame))
+            return;
+        final long total = end - frame.start;
+        frame.node.record(total, total - frame.children);
+        final ProfileFrame parent = frames.below(frame);
+        if (parent != null)
+            parent.children += total;
+    }
+
+    private String name(DebugNotification<?> n) {
+        final Kind kind = n.getKind();
+        final Object o;
+        switch (kind) {
+        case Subscribe:
+            o = n.getSourceFunc();
+            break;
+        case Request:
+            o = n.getFrom();
+            break;
+        default:
+            o = n.getTo() != null ? n.getTo() : n.getObserver();
+            break;
+        }
+        if (o == null)
+            return "source." + kind;
+        final Class<?> c = o.getClass();
+        String[] byKind = names.get(c);
+        if (byKind == null) {
+            byKind = new String[KINDS.length];
+            for (int i = 0; i < byKind.length; i++) {
+                byKind[i] = c.getName() + "." + KINDS[i];
+            }
+            final String[] existing = names.putIfAbsent(c, byKind);
+            if (existing != null)
+                byKind = existing;
+        }
+        return byKind[kind.ordinal()];
+    }
+
+    /**
+     * Forgets everything recorded so far, events in progress are recorded in the tree they
+     * started in.
+     */
+    public void reset() {
+        root = new Node(null);
+    }
+
+    /**
+     * @return the times of every frame name, the inclusive time of a name that is nested inside
+     *         itself is only counted for the outermost one.
+     */
+    public Map<String, Times> getOperatorTimes() {
+        final Map<String, Times> times = new HashMap<String, Times>();
+        for (Node child : root.children.values()) {
+            sum(child, new HashSet<String>(), times);
+        }
+        return times;
+    }
+
+    private static void sum(Node node, Set<String> outer, Map<String, Times> times) {
+        Times t = times.get(node.name);
+        if (t == null)
+            times.put(node.name, t = new Times());
+        final boolean added = outer.add(node.name);
+        t.calls += node.calls.get();
+        t.self += node.self.get();
+        if (added)
+            t.inclusive += node.total.get();
+        for (Node child : node.children.values()) {
+            sum(child, outer, times);
+        }
+        if (added)
+            outer.remove(node.name);
+    }
+
+    /**
+     * Writes one line per call path with the self time in nanoseconds spent at the end of it,
+     * frames separated by ';' from the outermost event in. This is the input format of
+     * flamegraph.pl and compatible tools.
+     */
+    public void writeFoldedStacks(Appendable out) throws IOException {
+        final StringBuilder path = new StringBuilder();
+        for (Node child : root.children.values()) {
+            fold(child, path, out);
+        }
+    }
+
+    /**
+     * @see #writeFoldedStacks(Appendable)
+     */
+    public String getFoldedStacks() {
+        final StringBuilder s = new StringBuilder();
+        try {
+            writeFoldedStacks(s);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return s.toString();
+    }
+
+    private static void fold(Node node, StringBuilder path, Appendable out) throws IOException {
+        final int length = path.length();
+        if (length > 0)
+            path.append(';');
+        path.append(node.name);
+        final long self = node.self.get();
+        if (self > 0)
+            out.append(path).append(' ').append(Long.toString(self)).append('\n');
+        for (Node child : node.children.values()) {
+            fold(child, path, out);
+        }
+        path.setLength(length);
+    }
+
+    /**
+     * One call path, shared by all of the threads.
+     */
+    private static final class Node {
+        final String name;
+        final ConcurrentMap<String, Node> children = new ConcurrentHashMap<String, Node>(4);
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong total = new AtomicLong();
+        final AtomicLong self = new AtomicLong();
+
+        Node(String name) {
+            this.name = name;
+        }
+
+        Node child(String name) {
+            Node child = children.get(name);
+            if (child == null) {
+                child = new Node(name);
+                final Node existing = children.putIfAbsent(name, child);
+                if (existing != null)
+                    child = existing;
+            }
+            return child;
+        }
+
+        void record(long total, long self) {
+            calls.incrementAndGet();
+            this.total.addAndGet(total);
+            this.self.addAndGet(self);
+        }
+    }
+
+    /**
+     * The number of events of one frame name and the nanoseconds spent in them with and without
+     * the events nested inside of them.
+     */
+    public static final class Times {
+        private long calls;
+        private long inclusive;
+        private long self;
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getInclusive() {
+            return inclusive;
+        }
+
+        public long getSelf() {
+            return self;
+        }
+
+        @Override
+        public String toString() {
+            return "{\"calls\": " + calls + ", \"inclusive\": " + inclusive + ", \"self\": " + self + "}";
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder s = new StringBuilder("{");
+        String sep = "";
+        for (Entry<String, Times> e : getOperatorTimes().entrySet()) {
+            s.append(sep).append('"').append(e.getKey()).append("\": ").append(e.getValue());
+            sep = ", ";
+        }
+        return s.append('}').toString();
+    }
+}
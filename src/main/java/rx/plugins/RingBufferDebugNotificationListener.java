@@ -0,0 +1,154 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link DebugNotificationListener} that keeps the most recent events in a fixed size ring
+ * buffer overwriting the oldest when it is full. Unlike {@link SimpleDebugNotificationListener}
+ * the memory used is capped so it can be left running in a long running system.
+ * <p>
+ * Any number of threads can record at the same time without taking a lock and
+ * {@link #getSnapshot()} never blocks them. A writer claims its slot before writing it so only
+ * writers a whole lap of the buffer apart ever wait for each other, and the older of them is then
+ * dropped as if it had been overwritten.
+ */
+public class RingBufferDebugNotificationListener extends DebugNotificationListener<SimpleContext<?>> {
+    private final AtomicReferenceArray<SimpleContext<?>> buffer;
+    private static final long EMPTY = -2;
+    private static final long WRITING = -1;
+
+    /**
+     * The sequence number of the context in each slot, {@link #WRITING} while a writer owns the
+     * slot and {@link #EMPTY} before the first write.
+     */
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            the number of events to keep, rounded up to the next power of two.
+     */
+    public RingBufferDebugNotificationListener(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30)
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.buffer = new AtomicReferenceArray<SimpleContext<?>>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, EMPTY);
+        }
+        this.mask = size - 1;
+    }
+
+    @Override
+    boolean needsCallingThread() {
+        return true;
+    }
+
+    @Override
+    public <T> SimpleContext<?> start(DebugNotification<T> n) {
+        SimpleContext<T> context = new SimpleContext<T>(n);
+        final long seq = cursor.getAndIncrement();
+        final int i = (int) seq & mask;
+        for (;;) {
+            final long current = sequences.get(i);
+            // a writer a whole lap ahead already took the slot so this event counts as overwritten
+            if (current >= seq)
+                return context;
+            if (current != WRITING && sequences.compareAndSet(i, current, WRITING)) {
+                buffer.lazySet(i, context);
+                sequences.lazySet(i, seq);
+                return context;
+            }
+            // the writer of the previous lap is between claiming and publishing the slot
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public void complete(SimpleContext<?> context) {
+        context.setEnd();
+    }
+
+    @Override
+    public void error(SimpleContext<?> context, Throwable e) {
+        context.setError(e);
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the total number of events seen, including the ones that were overwritten.
+     */
+    public long getCount() {
+        return cursor.get();
+    }
+
+    /**
+     * @return the number of events that were overwritten to make room for newer ones.
+     */
+    public long getOverwritten() {
+        return Math.max(0, cursor.get() - buffer.length());
+    }
+
+    /**
+     * A copy, oldest first, of the events currently in the buffer. Slots that are overwritten
+     * while the copy is being made are left out.
+     *
+     * @return
+     */
+    public List<SimpleContext<?>> getSnapshot() {
+        final long end = cursor.get();
+        final long begin = Math.max(0, end - buffer.length());
+        final List<SimpleContext<?>> snapshot = new ArrayList<SimpleContext<?>>((int) (end - begin));
+        for (long seq = begin; seq < end; seq++) {
+            int i = (int) seq & mask;
+            if (sequences.get(i) != seq)
+                continue;
+            SimpleContext<?> context = buffer.get(i);
+            if (sequences.get(i) == seq)
+                snapshot.add(context);
+        }
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return toString(getSnapshot());
+    }
+
+    public String toString(List<SimpleContext<?>> snapshot) {
+        StringBuilder str = new StringBuilder();
+        str.append("[\n  ");
+        boolean first = true;
+        for (SimpleContext<?> context : snapshot) {
+            if (!first)
+                str.append(",\n  ");
+            str.append(context.toString());
+            first = false;
+        }
+        str.append("\n]");
+        return str.toString();
+    }
+}
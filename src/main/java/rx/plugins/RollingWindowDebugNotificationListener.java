@@ -0,0 +1,374 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link DebugNotificationListener} that keeps the recent history of each operator class in a
+ * ring of fixed length time buckets: the onNexts, requests, completions and errors it emitted and
+ * the time spent in its events. Older buckets are reused as time moves on so memory only depends
+ * on the number of operator classes, which makes this the listener to leave on in production
+ * instead of {@link SimpleDebugNotificationListener}.
+ * <p>
+ * The events are counted against the class of the operator they come from and the same way as
+ * {@link CountingDebugNotificationListener}. Time is read from a {@link DebugClock}. Queries such as {@link #getLastMinute()} add up the
+ * buckets without blocking the writers. A bucket is cleared by the first event to land in it
+ * after it went out of the window, events racing with that may be lost so the counts are exact
+ * except at the edges of the buckets.
+ */
+public class RollingWindowDebugNotificationListener extends DebugNotificationListener<Object> {
+    /**
+     * Stands in for the class when there is no from operator.
+     */
+    private static final class None {
+    }
+
+    private static final class TimedFrame extends FrameStack.Frame {
+        long start;
+        Window window;
+    }
+
+    private final FrameStack<TimedFrame> frames = new FrameStack<TimedFrame>() {
+        @Override
+        protected TimedFrame newFrame() {
+            return new TimedFrame();
+        }
+    };
+
+    private final DebugClock clock;
+    private final long origin;
+    private final long bucketNanos;
+    private final int bucketCount;
+    private final ConcurrentMap<Class<?>, Window> windows = new ConcurrentHashMap<Class<?>, Window>();
+
+    /**
+     * @param bucketLength
+     *            the time covered by each bucket, the resolution of the queries.
+     * @param bucketCount
+     *            the number of buckets kept, the longest query is bucketLength * bucketCount.
+     * @param clock
+     *            the time the events are bucketed and timed by.
+     */
+    public RollingWindowDebugNotificationListener(long bucketLength, TimeUnit unit, int bucketCount, DebugClock clock) {
+        if (bucketLength <= 0)
+            throw new IllegalArgumentException("bucketLength must be greater than zero");
+        if (bucketCount < 1)
+            throw new IllegalArgumentException("bucketCount must be greater than zero");
+        if (clock == null)
+            throw new IllegalArgumentException("The clock must not be null");
+        this.bucketNanos = unit.toNanos(bucketLength);
+        this.bucketCount = bucketCount;
+        this.clock = clock;
+        this.origin = clock.nanoTime();
+    }
+
+    public RollingWindowDebugNotificationListener(long bucketLength, TimeUnit unit, int bucketCount) {
+        this(bucketLength, unit, bucketCount, DebugClock.system());
+    }
+
+    /**
+     * Keeps 15 minutes in 10 second buckets.
+     */
+    public RollingWindowDebugNotificationListener() {
+        this(10, TimeUnit.SECONDS, 90);
+    }
+
+    @Override
+    boolean needsCallingThread() {
+        return true;
+    }
+
+    @Override
+    public <T> Object start(DebugNotification<T> n) {
+        final long now = clock.nanoTime();
+        final Window window = window(n.getFrom());
+        final int i = KindCounts.index(n);
+        if (i >= 0) {
+            final Bucket b = window.bucket(epoch(now));
+            if (b != null)
+                b.counts.addAndGet(i, KindCounts.amount(n, i));
+        }
+        final TimedFrame frame = frames.push();
+        frame.window = window;
+        frame.start = now;
+        return frame;
+    }
+
+    @Override
+    public void complete(Object context) {
+        end((TimedFrame) context, false);
+    }
+
+    @Override
+    public void error(Object context, Throwable e) {
+        end((TimedFrame) context, true);
+    }
+
+    private void end(TimedFrame frame, boolean thrown) {
+        final long end = clock.nanoTime();
+        if (!frames.pop(frame))
+            return;
+        final Bucket b = frame.window.bucket(epoch(end));
+        if (b == null)
+            return;
+        final long duration = end - frame.start;
+        b.timed.incrementAndGet();
+        b.totalNanos.addAndGet(duration);
+        long max;
+        while (duration > (max = b.maxNanos.get()) && !b.maxNanos.compareAndSet(max, duration)) {
+        }
+        if (thrown)
+            b.thrown.incrementAndGet();
+    }
+
+    private long epoch(long nanos) {
+        return (nanos - origin) / bucketNanos;
+    }
+
+    private Window window(Object operator) {
+        final Class<?> key = operator == null ? None.class : operator.getClass();
+        Window w = windows.get(key);
+        if (w == null) {
+            w = new Window(bucketCount);
+            final Window existing = windows.putIfAbsent(key, w);
+            if (existing != null)
+                w = existing;
+        }
+        return w;
+    }
+
+    /**
+     * @param duration
+     *            how far back to look, rounded up to whole buckets and capped at all of them. The
+     *            bucket in progress is always included.
+     * @return the stats of every operator class that had events in the window.
+     */
+    public Map<String, Stats> getStats(long duration, TimeUnit unit) {
+        final long buckets = Math.max(1, Math.min(bucketCount, (unit.toNanos(duration) + bucketNanos - 1) / bucketNanos));
+        final long current = epoch(clock.nanoTime());
+        final long windowNanos = Math.min(buckets, current + 1) * bucketNanos;
+        final Map<String, Stats> stats = new HashMap<String, Stats>();
+        for (Entry<Class<?>, Window> e : windows.entrySet()) {
+            final Stats s = new Stats(windowNanos);
+            e.getValue().sum(current, (int) buckets, s);
+            if (!s.isEmpty())
+                stats.put(e.getKey() == None.class ? null : e.getKey().getName(), s);
+        }
+        return stats;
+    }
+
+    public Map<String, Stats> getLastMinute() {
+        return getStats(1, TimeUnit.MINUTES);
+    }
+
+    public Map<String, Stats> getLast5Minutes() {
+        return getStats(5, TimeUnit.MINUTES);
+    }
+
+    public Map<String, Stats> getLast15Minutes() {
+        return getStats(15, TimeUnit.MINUTES);
+    }
+
+    private static final class Bucket {
+        /**
+         * The bucket number this bucket currently holds, -1 until first used.
+         */
+        final AtomicLong epoch = new AtomicLong(-1);
+        /**
+         * Indexed by {@link KindCounts}.
+         */
+        final AtomicLongArray counts = new AtomicLongArray(KindCounts.SIZE);
+        final AtomicLong thrown = new AtomicLong();
+        final AtomicLong timed = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void clear() {
+            for (int i = 0; i < KindCounts.SIZE; i++) {
+                counts.set(i, 0);
+            }
+            thrown.set(0);
+            timed.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+        }
+    }
+
+    /**
+     * The buckets of one operator class, one more than the count so that the oldest bucket of a
+     * full window isn't the one being cleared.
+     */
+    private static final class Window {
+        private final Bucket[] ring;
+
+        Window(int bucketCount) {
+            ring = new Bucket[bucketCount + 1];
+            for (int i = 0; i < ring.length; i++) {
+                ring[i] = new Bucket();
+            }
+        }
+
+        /**
+         * @return the bucket for the epoch, cleared if it held an older one, or null if the epoch is
+         *         already out of the ring.
+         */
+        Bucket bucket(long epoch) {
+            final Bucket b = ring[(int) (epoch % ring.length)];
+            long e;
+            while ((e = b.epoch.get()) != epoch) {
+                if (e > epoch)
+                    return null;
+                if (b.epoch.compareAndSet(e, epoch)) {
+                    b.clear();
+                    break;
+                }
+            }
+            return b;
+        }
+
+        void sum(long current, int buckets, Stats s) {
+            for (long epoch = current; epoch > current - buckets && epoch >= 0; epoch--) {
+                final Bucket b = ring[(int) (epoch % ring.length)];
+                if (b.epoch.get() != epoch)
+                    continue;
+                final long[] counts = new long[KindCounts.SIZE];
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = b.counts.get(i);
+                }
+                final long thrown = b.thrown.get();
+                final long timed = b.timed.get();
+                final long totalNanos = b.totalNanos.get();
+                final long maxNanos = b.maxNanos.get();
+                // skip a bucket that was recycled while being read
+                if (b.epoch.get() != epoch)
+                    continue;
+                for (int i = 0; i < counts.length; i++) {
+                    s.counts[i] += counts[i];
+                }
+                s.thrown += thrown;
+                s.timed += timed;
+                s.totalNanos += totalNanos;
+                s.maxNanos = Math.max(s.maxNanos, maxNanos);
+            }
+        }
+    }
+
+    /**
+     * What one operator class did over a window.
+     */
+    public static final class Stats {
+        private final long windowNanos;
+        private final long[] counts = new long[KindCounts.SIZE];
+        private long thrown;
+        private long timed;
+        private long totalNanos;
+        private long maxNanos;
+
+        Stats(long windowNanos) {
+            this.windowNanos = windowNanos;
+        }
+
+        boolean isEmpty() {
+            for (long c : counts) {
+                if (c != 0)
+                    return false;
+            }
+            return timed == 0;
+        }
+
+        /**
+         * @return the length of the window covered, including all of the bucket in progress.
+         */
+        public long getWindowNanos() {
+            return windowNanos;
+        }
+
+        public long getOnNext() {
+            return counts[KindCounts.ON_NEXT];
+        }
+
+        /**
+         * @return the onNexts per second over the window.
+         */
+        public double getOnNextRate() {
+            return getOnNext() * 1e9 / windowNanos;
+        }
+
+        /**
+         * @return the sum of the bounded requests.
+         */
+        public long getRequested() {
+            return counts[KindCounts.REQUESTED];
+        }
+
+        /**
+         * @return the number of requests for Long.MAX_VALUE.
+         */
+        public long getUnboundedRequests() {
+            return counts[KindCounts.UNBOUNDED_REQUESTS];
+        }
+
+        public long getCompleted() {
+            return counts[KindCounts.COMPLETED];
+        }
+
+        /**
+         * @return the number of onError notifications.
+         */
+        public long getErrors() {
+            return counts[KindCounts.ERRORS];
+        }
+
+        /**
+         * @return the number of events that threw instead of returning.
+         */
+        public long getThrown() {
+            return thrown;
+        }
+
+        /**
+         * @return the number of events timed.
+         */
+        public long getEvents() {
+            return timed;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public double getMeanNanos() {
+            return timed == 0 ? 0 : (double) totalNanos / timed;
+        }
+
+        @Override
+        public String toString() {
+            return "{\"windowNanos\": " + windowNanos + ", \"onNext\": " + getOnNext() + ", \"onNextRate\": " + String.format(Locale.ROOT, "%.1f", getOnNextRate()) + ", \"requested\": "
+                    + getRequested() + ", \"unboundedRequests\": " + getUnboundedRequests() + ", \"completed\": " + getCompleted() + ", \"errors\": " + getErrors() + ", \"thrown\": " + thrown + ", \"events\": " + timed
+                    + ", \"meanNanos\": " + String.format(Locale.ROOT, "%.1f", getMeanNanos()) + ", \"maxNanos\": " + maxNanos + "}";
+        }
+    }
+}
@@ -12,6 +12,7 @@
  */
 package rx.plugins;
 
+import java.util.Locale;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class SimpleContext<T> implements Comparable<SimpleContext<T>> {
@@ -22,7 +23,7 @@ public class SimpleContext<T> implements Comparable<SimpleContext<T>> {
     private volatile Throwable err;
 
     public SimpleContext(DebugNotification<T> notification) {
-        this.notification = notification;
+        this.notification = notification.snapshot();
     }
 
     @Override
@@ -36,15 +37,19 @@ public class SimpleContext<T> implements Comparable<SimpleContext<T>> {
         str.append("{");
         long e = end.get();
         if (e != -1) {
-            str.append("\"ns_duration\": ").append(String.format("%10d", e - start)).append(", ");
+            str.append("\"ns_duration\": ").append(String.format(Locale.ROOT, "%10d", e - start)).append(", ");
         }
-        str.append("\"threadId\": ").append(String.format("%3d", threadId)).append(", ");
+        str.append("\"threadId\": ").append(String.format(Locale.ROOT, "%3d", threadId)).append(", ");
         str.append("\"notification\": ").append(notification).append("}");
     }
 
+    /**
+     * Orders by {@link DebugNotification#getSequence()}, the notification is numbered when the
+     * context is made so every context has one.
+     */
     @Override
     public int compareTo(SimpleContext<T> o) {
-        return Long.compare(start, o.start);
+        return Long.compare(notification.getSequence(), o.notification.getSequence());
     }
 
     public long getEnd() {
@@ -77,6 +82,10 @@ public class SimpleContext<T> implements Comparable<SimpleContext<T>> {
         return threadId;
     }
 
+    public long getSequence() {
+        return notification.getSequence();
+    }
+
     public long getStart() {
         return start;
     }
@@ -14,20 +14,51 @@ package rx.plugins;
 
 import rx.Subscriber;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * A simple implementation of the {@link DebugNotificationListener} that store all of the events in memory for analysis later.
- * It has unbounded growth so should not be used in a long running system.
+ * It has unbounded growth so should not be used in a long running system, see
+ * {@link RingBufferDebugNotificationListener} for a bounded alternative.
  */
 public class SimpleDebugNotificationListener extends DebugNotificationListener<SimpleContext<?>> {
+    private static final Comparator<SimpleContext<?>> BY_SEQUENCE = new Comparator<SimpleContext<?>>() {
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        @Override
+        public int compare(SimpleContext<?> a, SimpleContext<?> b) {
+            return ((SimpleContext) a).compareTo(b);
+        }
+    };
+
     private final Map<Subscriber<?>, Queue<SimpleContext<?>>> notificationsByObservable = new ConcurrentHashMap<Subscriber<?>, Queue<SimpleContext<?>>>();
+    /**
+     * The notifications again by the thread they happened on, each queue is only added to by its
+     * thread so it is in sequence order.
+     */
+    private final Queue<Queue<SimpleContext<?>>> threads = new ConcurrentLinkedQueue<Queue<SimpleContext<?>>>();
+    private final ThreadLocal<Queue<SimpleContext<?>>> thread = new ThreadLocal<Queue<SimpleContext<?>>>() {
+        @Override
+        protected Queue<SimpleContext<?>> initialValue() {
+            final Queue<SimpleContext<?>> q = new ConcurrentLinkedQueue<SimpleContext<?>>();
+            threads.add(q);
+            return q;
+        }
+    };
+
+    @Override
+    boolean needsCallingThread() {
+        return true;
+    }
 
     @Override
     public <T> SimpleContext<?> start(DebugNotification<T> n) {
@@ -38,6 +69,7 @@ public class SimpleDebugNotificationListener extends DebugNotificationListener<S
             notificationsByObservable.put((Subscriber<?>) n.getObserver(), notifications);
         }
         notifications.add(context);
+        thread.get().add(context);
         return context;
     }
 
@@ -108,6 +140,20 @@ public class SimpleDebugNotificationListener extends DebugNotificationListener<S
         }
     }
 
+    /**
+     * The notifications of each thread are kept in the order they were numbered so this merges them
+     * instead of sorting everything again.
+     * 
+     * @return a copy of all the notifications ordered by {@link DebugNotification#getSequence()}.
+     */
+    public List<SimpleContext<?>> getNotificationsInOrder() {
+        final List<List<SimpleContext<?>>> runs = new ArrayList<List<SimpleContext<?>>>();
+        for (Queue<SimpleContext<?>> notifications : threads) {
+            runs.add(new ArrayList<SimpleContext<?>>(notifications));
+        }
+        return SequenceMerge.merge(runs, BY_SEQUENCE);
+    }
+
     /**
      * a copy sorted by time  of the all the state useful for analysis.
      * @return
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter split into cells chosen by thread so that threads counting at the same time rarely
+ * touch the same cache line, the sum is only computed when read.
+ */
+final class StripedCounter {
+    /**
+     * The cells are spaced a cache line apart.
+     */
+    private static final int PAD = 8;
+    private static final int STRIPES;
+
+    static {
+        int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+        STRIPES = Math.min(stripes, 64);
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    void add(long n) {
+        cells.getAndAdd(cell(), n);
+    }
+
+    void increment() {
+        cells.getAndIncrement(cell());
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PAD);
+        }
+        return sum;
+    }
+
+    private static int cell() {
+        final long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return ((int) (h >>> 32) & (STRIPES - 1)) * PAD;
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.Buffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decides what of an onNext value is kept once a notification is stored and written out. The
+ * listener's {@link DebugNotificationListener#onNext(DebugNotification)} always sees the actual
+ * value but {@link DebugNotification#snapshot()}, {@link DebugNotification#toString()} and the
+ * listeners that store or export notifications only see {@link DebugNotification#getCapturedValue()}
+ * so tracing large payloads doesn't keep them reachable or turn them into strings.
+ * <p>
+ * The capture is made at most once per notification and only when asked for.
+ *
+ * @see DebugHook#setValueCapture(ValueCapture)
+ */
+public abstract class ValueCapture {
+    private static final ValueCapture VALUE = new ValueCapture() {
+        @Override
+        public Object capture(Object value) {
+            return value;
+        }
+    };
+
+    private static final ValueCapture NONE = new ValueCapture() {
+        @Override
+        public Object capture(Object value) {
+            return null;
+        }
+    };
+
+    private static final ValueCapture CLASS_NAME = new ValueCapture() {
+        @Override
+        public Object capture(Object value) {
+            return value == null ? null : value.getClass().getName();
+        }
+    };
+
+    private static final ValueCapture DIGEST = new ValueCapture() {
+        @Override
+        public Object capture(Object value) {
+            if (value == null)
+                return null;
+            int hash;
+            try {
+                hash = value.hashCode();
+            } catch (Throwable e) {
+                hash = System.identityHashCode(value);
+            }
+            return value.getClass().getName() + "#" + Integer.toHexString(hash);
+        }
+    };
+
+    private static final ValueCapture SIZE = new ValueCapture() {
+        @Override
+        public Object capture(Object value) {
+            return value == null ? null : value.getClass().getName() + " ~" + estimateSize(value) + " bytes";
+        }
+    };
+
+    private static final ConcurrentMap<Class<?>, Long> shallowSizes = new ConcurrentHashMap<Class<?>, Long>();
+
+    /**
+     * @param value
+     *            the value of an onNext, possibly null.
+     * @return what to keep of it, must not hold on to the value unless that is the intent.
+     */
+    public abstract Object capture(Object value);
+
+    /**
+     * @return a policy keeping the value itself, this is the default.
+     */
+    public static ValueCapture value() {
+        return VALUE;
+    }
+
+    /**
+     * @return a policy keeping nothing of the value.
+     */
+    public static ValueCapture none() {
+        return NONE;
+    }
+
+    /**
+     * @return a policy keeping the class name of the value.
+     */
+    public static ValueCapture className() {
+        return CLASS_NAME;
+    }
+
+    /**
+     * @param maxLength
+     *            the most characters of the toString to keep.
+     * @return a policy keeping the start of the toString of the value, ending in "..." when cut.
+     */
+    public static ValueCapture truncated(final int maxLength) {
+        if (maxLength < 0)
+            throw new IllegalArgumentException("maxLength must not be negative");
+        return new ValueCapture() {
+            @Override
+            public Object capture(Object value) {
+                if (value == null)
+                    return null;
+                String s;
+                try {
+                    s = String.valueOf(value);
+                } catch (Throwable e) {
+                    return value.getClass().getName();
+                }
+                return s.length() <= maxLength ? s : s.substring(0, maxLength) + "...";
+            }
+        };
+    }
+
+    /**
+     * The hashCode of most values is cheap or cached, that of large collections isn't.
+     * 
+     * @return a policy keeping the class name and hashCode of the value, enough to tell whether
+     *         two events carried equal values.
+     */
+    public static ValueCapture digest() {
+        return DIGEST;
+    }
+
+    /**
+     * The size is a rough guess at what the value keeps reachable, only strings, arrays, buffers,
+     * collections and maps are measured by their contents and the elements aren't followed.
+     * 
+     * @return a policy keeping the class name and the approximate size of the value.
+     */
+    public static ValueCapture sizeEstimate() {
+        return SIZE;
+    }
+
+    static long estimateSize(Object value) {
+        if (value instanceof CharSequence)
+            return 40 + 2L * ((CharSequence) value).length();
+        if (value instanceof Buffer)
+            return 48 + ((Buffer) value).capacity();
+        if (value instanceof Collection)
+            return 40 + 16L * ((Collection<?>) value).size();
+        if (value instanceof Map)
+            return 48 + 40L * ((Map<?, ?>) value).size();
+        final Class<?> c = value.getClass();
+        if (c.isArray())
+            return 16 + (long) Array.getLength(value) * elementSize(c.getComponentType());
+        Long size = shallowSizes.get(c);
+        if (size == null) {
+            long s = 12;
+            for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+                for (Field f : k.getDeclaredFields()) {
+                    if (!Modifier.isStatic(f.getModifiers()))
+                        s += elementSize(f.getType());
+                }
+            }
+            size = (s + 7) & ~7;
+            shallowSizes.putIfAbsent(c, size);
+        }
+        return size;
+    }
+
+    private static int elementSize(Class<?> type) {
+        if (type == long.class || type == double.class)
+            return 8;
+        if (type == byte.class || type == boolean.class)
+            return 1;
+        if (type == char.class || type == short.class)
+            return 2;
+        return 4;
+    }
+}
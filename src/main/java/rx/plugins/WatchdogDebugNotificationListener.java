@@ -0,0 +1,349 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.plugins;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.plugins.DebugNotification.Kind;
+
+/**
+ * A {@link DebugNotificationListener} that watches for events that take too long and only then
+ * turns on detailed tracing. Until something is slow each event costs a timestamp and a few
+ * assignments to a reused per thread frame.
+ * <p>
+ * A daemon thread checks the event each thread has been in the longest, usually the onNext,
+ * request or subscribe at the start of a chain. When it has been running for longer than the
+ * threshold an {@link Incident} is recorded with the stack of the thread and the operator chain it
+ * is in, the events the thread has in progress from the outermost to the innermost. The recorder
+ * given is then sent every notification until the trace duration has passed. Each slow event is
+ * reported once.
+ * <p>
+ * The chain is read from the other thread while it runs so it is a best effort view, the stack
+ * and the chain may be a moment apart. An event completed on another thread than the one it started
+ * on is counted in {@link #getMismatched()} and no longer watched, the thread it started on drops
+ * it when it starts its next event.
+ */
+public class WatchdogDebugNotificationListener extends DebugNotificationListener<Object> implements Closeable {
+    private static final int MAX_INCIDENTS = 32;
+
+    private static final class WatchFrame {
+        final ThreadState state;
+        final int depth;
+        long start;
+        Kind kind;
+        Object observer;
+        Object from;
+        Object to;
+        boolean recording;
+        Object recorderContext;
+        /**
+         * Set when another thread completed the event.
+         */
+        volatile boolean closed;
+
+        WatchFrame(ThreadState state, int depth) {
+            this.state = state;
+            this.depth = depth;
+        }
+    }
+
+    private static final class ThreadState {
+        final Thread thread = Thread.currentThread();
+        /**
+         * Only written by the thread, read by the watchdog.
+         */
+        volatile WatchFrame[] frames = new WatchFrame[16];
+        volatile int size;
+        /**
+         * The start of the outermost event in progress, only meaningful while busy.
+         */
+        volatile long since;
+        /**
+         * The number of outermost events started, so each is reported at most once.
+         */
+        volatile long outermost;
+        volatile boolean busy;
+        /**
+         * The outermost event last reported, only touched by the watchdog.
+         */
+        long reported;
+    }
+
+    private final long thresholdNanos;
+    private final long traceNanos;
+    private final DebugNotificationListener<Object> recorder;
+    private final ConcurrentLinkedQueue<ThreadState> threads = new ConcurrentLinkedQueue<ThreadState>();
+    private final ThreadLocal<ThreadState> state = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            final ThreadState s = new ThreadState();
+            threads.add(s);
+            return s;
+        }
+    };
+    private final ArrayDeque<Incident> incidents = new ArrayDeque<Incident>();
+    private final ScheduledExecutorService watchdog;
+    private final AtomicLong mismatched = new AtomicLong();
+    private volatile long traceUntil = System.nanoTime();
+
+    /**
+     * @param threshold
+     *            how long an event may run before it is reported.
+     * @param traceDuration
+     *            how long to send the notifications to the recorder after each report.
+     * @param recorder
+     *            the listener that records the detailed trace such as a
+     *            {@link RingBufferDebugNotificationListener}.
+     */
+    @SuppressWarnings("unchecked")
+    public WatchdogDebugNotificationListener(long threshold, TimeUnit unit, long traceDuration, TimeUnit traceUnit, DebugNotificationListener<?> recorder) {
+        if (threshold <= 0)
+            throw new IllegalArgumentException("threshold must be greater than zero");
+        if (recorder == null)
+            throw new IllegalArgumentException("The recorder must not be null");
+        this.thresholdNanos = unit.toNanos(threshold);
+        this.traceNanos = traceUnit.toNanos(traceDuration);
+        this.recorder = (DebugNotificationListener<Object>) recorder;
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "RxDebugWatchdog");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        final long period = Math.max(TimeUnit.MILLISECONDS.toNanos(1), thresholdNanos / 2);
+        watchdog.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    boolean needsCallingThread() {
+        return true;
+    }
+
+    @Override
+    public <T> Object start(DebugNotification<T> n) {
+        final long now = System.nanoTime();
+        final ThreadState s = state.get();
+        WatchFrame[] frames = s.frames;
+        int depth = s.size;
+        while (depth > 0 && frames[depth - 1].closed) {
+            depth--;
+        }
+        if (depth == frames.length)
+            s.frames = frames = Arrays.copyOf(frames, depth * 2);
+        WatchFrame f = frames[depth];
+        if (f == null)
+            frames[depth] = f = new WatchFrame(s, depth);
+        f.start = now;
+        f.kind = n.getKind();
+        f.observer = n.getObserver();
+        f.from = n.getFrom();
+        f.to = n.getTo();
+        f.closed = false;
+        f.recording = now - traceUntil < 0;
+        f.recorderContext = f.recording ? recorder.start(n) : null;
+        s.size = depth + 1;
+        if (depth == 0) {
+            s.since = now;
+            s.outermost++;
+            s.busy = true;
+        }
+        return f;
+    }
+
+    @Override
+    public void complete(Object context) {
+        final WatchFrame f = pop(context);
+        if (f != null && f.recording)
+            recorder.complete(f.recorderContext);
+    }
+
+    @Override
+    public void error(Object context, Throwable e) {
+        final WatchFrame f = pop(context);
+        if (f != null && f.recording)
+            recorder.error(f.recorderContext, e);
+    }
+
+    private WatchFrame pop(Object context) {
+        final WatchFrame f = (WatchFrame) context;
+        final ThreadState s = f.state;
+        if (s.thread != Thread.currentThread()) {
+            // only the thread writes its frames, leave it to drop this one
+            mismatched.incrementAndGet();
+            f.closed = true;
+            return null;
+        }
+        if (f.depth >= s.size || s.frames[f.depth] != f) {
+            mismatched.incrementAndGet();
+            return null;
+        }
+        s.size = f.depth;
+        if (f.depth == 0)
+            s.busy = false;
+        f.observer = null;
+        f.from = null;
+        f.to = null;
+        return f;
+    }
+
+    /**
+     * Looks for slow events now, the watchdog thread calls this periodically.
+     */
+    public void check() {
+        final long now = System.nanoTime();
+        for (ThreadState s : threads) {
+            if (!s.thread.isAlive()) {
+                threads.remove(s);
+                continue;
+            }
+            if (!s.busy || s.frames[0].closed)
+                continue;
+            final long outermost = s.outermost;
+            final long since = s.since;
+            if (outermost == s.reported || now - since <= thresholdNanos)
+                continue;
+            s.reported = outermost;
+            final StackTraceElement[] stack = s.thread.getStackTrace();
+            report(new Incident(s.thread.getName(), now - since, stack, chain(s)));
+        }
+    }
+
+    private static List<String> chain(ThreadState s) {
+        final DebugRegistry registry = DebugRegistry.getInstance();
+        final WatchFrame[] frames = s.frames;
+        final int size = Math.min(s.size, frames.length);
+        final List<String> chain = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            final WatchFrame f = frames[i];
+            if (f == null)
+                continue;
+            final Object from = f.from;
+            final Object to = f.to;
+            final Object observer = f.observer;
+            chain.add(f.kind + " " + (from == null ? "source" : registry.describe(from).getName()) + " -> " + (to == null ? "subscriber" : registry.describe(to).getName()) + " ("
+                    + (observer == null ? "null" : registry.describe(observer).getName()) + ")");
+        }
+        return chain;
+    }
+
+    private void report(Incident incident) {
+        synchronized (incidents) {
+            if (incidents.size() == MAX_INCIDENTS)
+                incidents.removeFirst();
+            incidents.addLast(incident);
+        }
+        traceUntil = System.nanoTime() + traceNanos;
+    }
+
+    /**
+     * @return the number of completions that didn't match an event in progress on the thread,
+     *         because the event was completed on another thread or completed twice.
+     */
+    public long getMismatched() {
+        return mismatched.get();
+    }
+
+    /**
+     * @return true while the notifications are sent to the recorder.
+     */
+    public boolean isTracing() {
+        return System.nanoTime() - traceUntil < 0;
+    }
+
+    /**
+     * @return the most recent incidents, oldest first.
+     */
+    public List<Incident> getIncidents() {
+        synchronized (incidents) {
+            return new ArrayList<Incident>(incidents);
+        }
+    }
+
+    /**
+     * Stops the watchdog thread.
+     */
+    @Override
+    public void close() {
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * An event found running for longer than the threshold.
+     */
+    public static final class Incident {
+        private final String thread;
+        private final long elapsedNanos;
+        private final StackTraceElement[] stack;
+        private final List<String> chain;
+
+        Incident(String thread, long elapsedNanos, StackTraceElement[] stack, List<String> chain) {
+            this.thread = thread;
+            this.elapsedNanos = elapsedNanos;
+            this.stack = stack;
+            this.chain = Collections.unmodifiableList(chain);
+        }
+
+        public String getThread() {
+            return thread;
+        }
+
+        /**
+         * @return how long the event had been running when it was found.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public StackTraceElement[] getStackTrace() {
+            return stack.clone();
+        }
+
+        /**
+         * @return the events the thread was in from the outermost to the innermost.
+         */
+        public List<String> getChain() {
+            return chain;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder s = new StringBuilder("{\"thread\": ").append(DebugNotification.quote(thread)).append(", \"elapsedNanos\": ").append(elapsedNanos).append(", \"chain\": [");
+            for (int i = 0; i < chain.size(); i++) {
+                s.append(i == 0 ? "" : ", ").append(DebugNotification.quote(chain.get(i)));
+            }
+            s.append("], \"stack\": [");
+            for (int i = 0; i < stack.length; i++) {
+                s.append(i == 0 ? "" : ", ").append(DebugNotification.quote(stack[i]));
+            }
+            return s.append("]}").toString();
+        }
+    }
+}
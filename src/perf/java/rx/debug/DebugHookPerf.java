@@ -0,0 +1,244 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Func1;
+import rx.plugins.DebugHook;
+import rx.plugins.DebugNotification;
+import rx.plugins.DebugNotificationListener;
+import rx.plugins.RxJavaPlugins;
+import rx.plugins.SimpleContext;
+import rx.plugins.SimpleDebugNotificationListener;
+import rx.schedulers.Schedulers;
+
+/**
+ * Measures the cost of the {@link DebugHook} compared to running without any plug-in.
+ * <p>
+ * The {@code onNext}, {@code request}, {@code subscribe} and {@code unsubscribe} benchmarks each
+ * isolate one {@link DebugNotification.Kind} so the overhead can be read per kind, the remaining
+ * benchmarks measure whole operator chains. Every benchmark is normalized to {@code size} events
+ * so the scores of the different hooks can be compared directly. Run with
+ * {@code ./gradlew benchmarks} which also enables the JMH GC profiler to report the allocation
+ * rate.
+ * <p>
+ * The hook can only be registered once per JVM so every parameter combination must run in its own
+ * fork.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class DebugHookPerf {
+    /**
+     * none: no plug-in, noop: a {@link DebugHook} with a listener that does nothing, reuse: the same
+     * as noop with {@link DebugHook#setReuseOnNextNotifications(boolean)} turned on, simple: a
+     * {@link DebugHook} with a {@link SimpleDebugNotificationListener}.
+     */
+    @Param({ "none", "noop", "reuse", "simple" })
+    public String hook;
+
+    @Param({ "1", "1000" })
+    public int size;
+
+    private final ResettableListener simple = new ResettableListener();
+
+    private Observable<Integer> range;
+    private Observable<Integer> just;
+    private Observable<Integer> never;
+    private Observable<Integer> mapFilter;
+    private Observable<Integer> flatMap;
+    private Observable<Integer> observeOn;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if ("noop".equals(hook)) {
+            RxJavaPlugins.getInstance().registerObservableExecutionHook(new DebugHook<Object>(new DebugNotificationListener<Object>() {
+            }));
+        } else if ("reuse".equals(hook)) {
+            DebugHook<Object> debugHook = new DebugHook<Object>(new DebugNotificationListener<Object>() {
+            });
+            debugHook.setReuseOnNextNotifications(true);
+            RxJavaPlugins.getInstance().registerObservableExecutionHook(debugHook);
+        } else if ("simple".equals(hook)) {
+            RxJavaPlugins.getInstance().registerObservableExecutionHook(new DebugHook<SimpleContext<?>>(simple));
+        } else if (!"none".equals(hook)) {
+            throw new IllegalArgumentException("Unknown hook " + hook);
+        }
+
+        range = Observable.range(0, size);
+        just = Observable.just(1);
+        never = Observable.never();
+        mapFilter = range.map(new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer i) {
+                return i + 1;
+            }
+        }).filter(new Func1<Integer, Boolean>() {
+            @Override
+            public Boolean call(Integer i) {
+                return (i & 1) == 0;
+            }
+        });
+        flatMap = range.flatMap(new Func1<Integer, Observable<Integer>>() {
+            @Override
+            public Observable<Integer> call(Integer i) {
+                return Observable.just(i);
+            }
+        });
+        observeOn = range.observeOn(Schedulers.computation());
+    }
+
+    /**
+     * The {@link SimpleDebugNotificationListener} never forgets anything so start each iteration
+     * with an empty one to keep the heap from filling up.
+     */
+    @Setup(Level.Iteration)
+    public void resetListener() {
+        simple.reset();
+    }
+
+    @Benchmark
+    public void onNext(Blackhole bh) {
+        range.subscribe(new PerfSubscriber(bh, 0));
+    }
+
+    @Benchmark
+    public void request(Blackhole bh) {
+        range.subscribe(new PerfSubscriber(bh, 1));
+    }
+
+    @Benchmark
+    public void subscribe(Blackhole bh) {
+        for (int i = 0; i < size; i++) {
+            just.subscribe(new PerfSubscriber(bh, 0));
+        }
+    }
+
+    @Benchmark
+    public void unsubscribe(Blackhole bh) {
+        for (int i = 0; i < size; i++) {
+            PerfSubscriber s = new PerfSubscriber(bh, 0);
+            never.subscribe(s);
+            s.unsubscribe();
+        }
+    }
+
+    @Benchmark
+    public void mapFilter(Blackhole bh) {
+        mapFilter.subscribe(new PerfSubscriber(bh, 0));
+    }
+
+    @Benchmark
+    public void flatMap(Blackhole bh) {
+        flatMap.subscribe(new PerfSubscriber(bh, 0));
+    }
+
+    @Benchmark
+    public void observeOn(Blackhole bh) throws InterruptedException {
+        PerfSubscriber s = new PerfSubscriber(bh, 0);
+        observeOn.subscribe(s);
+        s.latch.await();
+    }
+
+    /**
+     * Consumes every value into the {@link Blackhole}, when batch is greater than zero it requests
+     * that many values at a time instead of running unbounded.
+     */
+    static final class PerfSubscriber extends Subscriber<Integer> {
+        final CountDownLatch latch = new CountDownLatch(1);
+        private final Blackhole bh;
+        private final int batch;
+
+        PerfSubscriber(Blackhole bh, int batch) {
+            this.bh = bh;
+            this.batch = batch;
+        }
+
+        @Override
+        public void onStart() {
+            if (batch > 0)
+                request(batch);
+        }
+
+        @Override
+        public void onNext(Integer t) {
+            bh.consume(t);
+            if (batch > 0)
+                request(batch);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            bh.consume(e);
+            latch.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Forwards to a {@link SimpleDebugNotificationListener} that can be thrown away between
+     * iterations, the hook itself can't be replaced once registered.
+     */
+    static final class ResettableListener extends DebugNotificationListener<SimpleContext<?>> {
+        private volatile SimpleDebugNotificationListener actual = new SimpleDebugNotificationListener();
+
+        void reset() {
+            actual = new SimpleDebugNotificationListener();
+        }
+
+        @Override
+        public <T> T onNext(DebugNotification<T> n) {
+            return actual.onNext(n);
+        }
+
+        @Override
+        public <T> SimpleContext<?> start(DebugNotification<T> n) {
+            return actual.start(n);
+        }
+
+        @Override
+        public void complete(SimpleContext<?> context) {
+            actual.complete(context);
+        }
+
+        @Override
+        public void error(SimpleContext<?> context, Throwable e) {
+            actual.error(context, e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import rx.Observable.Operator;
+import rx.Subscriber;
+import rx.internal.operators.OperatorObserveOn;
+import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.AsyncBoundaryDebugNotificationListener;
+import rx.plugins.AsyncBoundaryDebugNotificationListener.BoundaryStats;
+import rx.plugins.DebugHook;
+import rx.plugins.DebugRegistry;
+import rx.schedulers.Schedulers;
+
+public class AsyncBoundaryDebugNotificationListenerTest {
+    @Test
+    public void testHandoff() throws InterruptedException {
+        AsyncBoundaryDebugNotificationListener listener = new AsyncBoundaryDebugNotificationListener();
+        OperatorObserveOn<String> observeOn = new OperatorObserveOn<String>(Schedulers.immediate());
+        final DebugSubscriber<String, Object> in = new DebugSubscriber<String, Object>(listener, Subscribers.<String> empty(), null, observeOn);
+        final DebugSubscriber<String, Object> out = new DebugSubscriber<String, Object>(listener, Subscribers.<String> empty(), observeOn, null);
+        in.setDownstream(out);
+
+        final String a = "a", b = "b";
+        in.onNext(a);
+        in.onNext(b);
+        assertEquals(2, listener.snapshot(false).get(OperatorObserveOn.class.getName()).getInFlight());
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                out.onNext(a);
+                out.onNext(b);
+                out.onCompleted();
+            }
+        });
+        consumer.start();
+        consumer.join();
+
+        Map<String, BoundaryStats> snapshot = listener.snapshot(true);
+        BoundaryStats stats = snapshot.get(OperatorObserveOn.class.getName());
+        assertEquals(2, stats.getLatency().getCount());
+        assertEquals(2, stats.getCrossThread());
+        assertEquals(0, stats.getInFlight());
+        assertEquals(0, stats.getUnmatched());
+        assertTrue(stats.getDepth().size() >= 1);
+        assertEquals(0, listener.snapshot(false).get(OperatorObserveOn.class.getName()).getLatency().getCount());
+    }
+
+    @Test
+    public void testSubscriptionsSharingAnOperator() {
+        AsyncBoundaryDebugNotificationListener listener = new AsyncBoundaryDebugNotificationListener(2, 0, TimeUnit.MILLISECONDS, OperatorObserveOn.class);
+        OperatorObserveOn<String> observeOn = new OperatorObserveOn<String>(Schedulers.immediate());
+        DebugSubscriber<String, Object> in1 = new DebugSubscriber<String, Object>(listener, Subscribers.<String> empty(), null, observeOn);
+        DebugSubscriber<String, Object> out1 = new DebugSubscriber<String, Object>(listener, Subscribers.<String> empty(), observeOn, null);
+        in1.setDownstream(out1);
+        DebugSubscriber<String, Object> in2 = new DebugSubscriber<String, Object>(listener, Subscribers.<String> empty(), null, observeOn);
+        DebugSubscriber<String, Object> out2 = new DebugSubscriber<String, Object>(listener, Subscribers.<String> empty(), observeOn, null);
+        in2.setDownstream(out2);
+
+        String a = "a", b = "b", c = "c";
+        in1.onNext(a);
+        in2.onNext(b);
+        in2.onNext(c);
+        // past the capacity of the second subscription
+        in2.onNext(a);
+        out1.onNext(a);
+        out1.onCompleted();
+        out2.onNext(b);
+        out2.onNext(c);
+
+        BoundaryStats stats = listener.snapshot(false).get(OperatorObserveOn.class.getName());
+        assertEquals(3, stats.getLatency().getCount());
+        assertEquals(0, stats.getInFlight());
+        assertEquals(1, stats.getUnmatched());
+        assertEquals(0, stats.getCrossThread());
+    }
+
+    @Test
+    public void testHookLinksInboundToOutbound() {
+        DebugHook<Object> hook = new DebugHook<Object>(new AsyncBoundaryDebugNotificationListener());
+        Operator<String, String> op = new Operator<String, String>() {
+            @Override
+            public Subscriber<? super String> call(Subscriber<? super String> child) {
+                return Subscribers.empty();
+            }
+        };
+        Subscriber<String> child = Subscribers.empty();
+        DebugSubscriber<?, ?> in = (DebugSubscriber<?, ?>) hook.onLift(op).call(child);
+        assertEquals(DebugRegistry.getInstance().id(child), in.getDownstreamId());
+    }
+}
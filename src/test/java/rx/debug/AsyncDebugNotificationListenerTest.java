@@ -0,0 +1,186 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.AsyncDebugNotificationListener;
+import rx.plugins.AsyncDebugNotificationListener.OverflowPolicy;
+import rx.plugins.DebugNotification;
+import rx.plugins.DebugNotificationListener;
+import rx.plugins.LatencyHistogramDebugNotificationListener;
+import rx.plugins.RingBufferDebugNotificationListener;
+import rx.plugins.SimpleContext;
+import rx.plugins.SimpleDebugNotificationListener;
+
+public class AsyncDebugNotificationListenerTest {
+    static class RecordingListener extends DebugNotificationListener<String> {
+        final List<String> events = new CopyOnWriteArrayList<String>();
+        final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+        final List<Long> threadIds = new CopyOnWriteArrayList<Long>();
+
+        @Override
+        public <T> String start(DebugNotification<T> n) {
+            threads.add(Thread.currentThread());
+            threadIds.add(n.getThreadId());
+            String name = n.getKind() + ":" + n.getValue();
+            events.add("start " + name);
+            return name;
+        }
+
+        @Override
+        public void complete(String context) {
+            events.add("complete " + context);
+        }
+    }
+
+    @Test
+    public void testDispatchedInOrderOnAnotherThread() throws InterruptedException {
+        RecordingListener delegate = new RecordingListener();
+        AsyncDebugNotificationListener<String> listener = new AsyncDebugNotificationListener<String>(delegate, 1024, OverflowPolicy.BLOCK);
+        DebugSubscriber<Integer, Object> s = new DebugSubscriber<Integer, Object>(listener, Subscribers.<Integer> empty(), null, null, true);
+        for (int i = 0; i < 3; i++) {
+            s.onNext(i);
+        }
+        listener.shutdown();
+
+        assertEquals(6, delegate.events.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("start OnNext:" + i, delegate.events.get(i * 2));
+            assertEquals("complete OnNext:" + i, delegate.events.get(i * 2 + 1));
+        }
+        assertFalse(delegate.threads.contains(Thread.currentThread()));
+        for (long threadId : delegate.threadIds) {
+            assertEquals(Thread.currentThread().getId(), threadId);
+        }
+        assertEquals(0, listener.getDropped());
+    }
+
+    @Test
+    public void testNestedEndsPairedWithTheirStarts() throws InterruptedException {
+        RecordingListener delegate = new RecordingListener();
+        AsyncDebugNotificationListener<String> listener = new AsyncDebugNotificationListener<String>(delegate, 16, OverflowPolicy.BLOCK);
+        Object outer = listener.start(DebugNotification.createOnNext(Subscribers.<Integer> empty(), null, 1, null));
+        Object inner = listener.start(DebugNotification.createOnNext(Subscribers.<Integer> empty(), null, 2, null));
+        listener.complete(inner);
+        listener.complete(outer);
+        listener.shutdown();
+
+        assertEquals("complete OnNext:2", delegate.events.get(2));
+        assertEquals("complete OnNext:1", delegate.events.get(3));
+    }
+
+    @Test
+    public void testDropWhenFull() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingListener delegate = new RecordingListener() {
+            @Override
+            public <T> String start(DebugNotification<T> n) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.start(n);
+            }
+        };
+        AsyncDebugNotificationListener<String> listener = new AsyncDebugNotificationListener<String>(delegate, 64, OverflowPolicy.DROP);
+        for (int i = 0; i < 1000; i++) {
+            listener.start(DebugNotification.createOnNext(Subscribers.<Integer> empty(), null, i, null));
+        }
+        release.countDown();
+        listener.shutdown();
+
+        assertTrue(listener.getDropped() > 0);
+        assertEquals(1000, delegate.events.size() + listener.getDropped());
+    }
+
+    @Test(timeout = 10000)
+    public void testEndsNeverBlockWhenDropping() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingListener delegate = new RecordingListener() {
+            @Override
+            public <T> String start(DebugNotification<T> n) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.start(n);
+            }
+        };
+        AsyncDebugNotificationListener<String> listener = new AsyncDebugNotificationListener<String>(delegate, 4, OverflowPolicy.DROP);
+        List<Object> contexts = new ArrayList<Object>();
+        for (int i = 0; i < 100; i++) {
+            contexts.add(listener.start(DebugNotification.createOnNext(Subscribers.<Integer> empty(), null, i, null)));
+        }
+        for (Object context : contexts) {
+            listener.complete(context);
+        }
+        release.countDown();
+        listener.shutdown();
+
+        int starts = 0;
+        int completes = 0;
+        for (String event : delegate.events) {
+            if (event.startsWith("start"))
+                starts++;
+            else
+                completes++;
+        }
+        assertEquals(starts, completes);
+        assertEquals(100, starts + listener.getDropped());
+    }
+
+    @Test
+    public void testDelegateFailuresCountedApart() throws InterruptedException {
+        RecordingListener delegate = new RecordingListener() {
+            @Override
+            public void complete(String context) {
+                throw new IllegalStateException();
+            }
+        };
+        AsyncDebugNotificationListener<String> listener = new AsyncDebugNotificationListener<String>(delegate, 16, OverflowPolicy.BLOCK);
+        listener.complete(listener.start(DebugNotification.createOnNext(Subscribers.<Integer> empty(), null, 1, null)));
+        listener.shutdown();
+
+        assertEquals(1, listener.getFailed());
+        assertEquals(0, listener.getDropped());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsCallingThreadListeners() {
+        new AsyncDebugNotificationListener<Object>(new LatencyHistogramDebugNotificationListener(), 16, OverflowPolicy.DROP);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsListenersTimingEvents() {
+        new AsyncDebugNotificationListener<SimpleContext<?>>(new SimpleDebugNotificationListener(), 16, OverflowPolicy.DROP);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsRingBuffer() {
+        new AsyncDebugNotificationListener<SimpleContext<?>>(new RingBufferDebugNotificationListener(16), 16, OverflowPolicy.DROP);
+    }
+}
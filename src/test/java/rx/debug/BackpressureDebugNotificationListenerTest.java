@@ -0,0 +1,161 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import rx.Observable.Operator;
+import rx.Producer;
+import rx.Subscriber;
+import rx.operators.DebugSubscriber;
+import rx.plugins.BackpressureDebugNotificationListener;
+import rx.plugins.BackpressureDebugNotificationListener.DemandSnapshot;
+import rx.plugins.BackpressureDebugNotificationListener.Summary;
+import rx.plugins.DebugRegistry;
+
+public class BackpressureDebugNotificationListenerTest {
+    private static class Pass implements Operator<Integer, Integer> {
+        @Override
+        public Subscriber<? super Integer> call(Subscriber<? super Integer> child) {
+            return child;
+        }
+    }
+
+    private static class Actual extends Subscriber<Integer> {
+        Producer producer;
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onError(Throwable e) {
+        }
+
+        @Override
+        public void onNext(Integer t) {
+        }
+
+        @Override
+        public void setProducer(Producer producer) {
+            this.producer = producer;
+        }
+    }
+
+    private static final Producer NOOP = new Producer() {
+        @Override
+        public void request(long n) {
+        }
+    };
+
+    private static final String KEY = Pass.class.getName() + " -> null";
+
+    private static DebugSubscriber<Integer, Object> subscribe(BackpressureDebugNotificationListener listener, Actual actual) {
+        DebugSubscriber<Integer, Object> s = new DebugSubscriber<Integer, Object>(listener, actual, new Pass(), null);
+        s.setProducer(NOOP);
+        return s;
+    }
+
+    @Test
+    public void testUnboundedDemand() {
+        BackpressureDebugNotificationListener listener = new BackpressureDebugNotificationListener();
+        Actual a = new Actual();
+        DebugSubscriber<Integer, Object> s = subscribe(listener, a);
+        a.producer.request(Long.MAX_VALUE);
+        s.onNext(1);
+
+        List<DemandSnapshot> live = listener.getLive();
+        assertEquals(1, live.size());
+        DemandSnapshot d = live.get(0);
+        assertTrue(d.isUnbounded());
+        assertTrue(d.isFlagged());
+        assertEquals(Long.MAX_VALUE, d.getOutstanding());
+        assertEquals(DebugRegistry.getInstance().describe(a).getName(), d.getObserver());
+
+        s.onCompleted();
+        assertTrue(listener.getLive().isEmpty());
+        Summary summary = listener.getFlaggedByOperator().get(KEY);
+        assertEquals(1, summary.getSubscribers());
+        assertEquals(1, summary.getUnbounded());
+    }
+
+    @Test
+    public void testOverrun() {
+        BackpressureDebugNotificationListener listener = new BackpressureDebugNotificationListener(1);
+        Actual over = new Actual();
+        DebugSubscriber<Integer, Object> s1 = subscribe(listener, over);
+        over.producer.request(2);
+        for (int i = 0; i < 4; i++) {
+            s1.onNext(i);
+        }
+        Actual within = new Actual();
+        DebugSubscriber<Integer, Object> s2 = subscribe(listener, within);
+        within.producer.request(2);
+        for (int i = 0; i < 3; i++) {
+            s2.onNext(i);
+        }
+
+        assertEquals(2, listener.getLive().size());
+        List<DemandSnapshot> flagged = listener.getLiveFlagged();
+        assertEquals(1, flagged.size());
+        assertEquals(2, flagged.get(0).getMaxOverrun());
+        assertEquals(-2, flagged.get(0).getOutstanding());
+
+        s1.unsubscribe();
+        s2.unsubscribe();
+        Summary summary = listener.getFlaggedByOperator().get(KEY);
+        assertEquals(1, summary.getSubscribers());
+        assertEquals(0, summary.getUnbounded());
+        assertEquals(2, summary.getMaxOverrun());
+    }
+
+    @Test
+    public void testHighWater() {
+        BackpressureDebugNotificationListener listener = new BackpressureDebugNotificationListener();
+        Actual a = new Actual();
+        DebugSubscriber<Integer, Object> s = subscribe(listener, a);
+        a.producer.request(5);
+        s.onNext(1);
+        s.onNext(2);
+        a.producer.request(3);
+        s.onNext(3);
+
+        DemandSnapshot d = listener.getLive().get(0);
+        assertEquals(8, d.getRequested());
+        assertEquals(3, d.getDelivered());
+        assertEquals(5, d.getOutstanding());
+        assertEquals(6, d.getHighWater());
+        assertTrue(d.isSawRequest());
+        assertFalse(d.isFlagged());
+    }
+
+    @Test
+    public void testRequestAfterTerminalIgnored() {
+        BackpressureDebugNotificationListener listener = new BackpressureDebugNotificationListener();
+        Actual a = new Actual();
+        DebugSubscriber<Integer, Object> s = subscribe(listener, a);
+        a.producer.request(Long.MAX_VALUE);
+        s.onCompleted();
+        a.producer.request(5);
+        s.unsubscribe();
+
+        assertTrue(listener.getLive().isEmpty());
+        assertEquals(1, listener.getFlaggedByOperator().get(KEY).getSubscribers());
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.CompactDebugNotificationListener;
+import rx.plugins.CompactEventStore;
+import rx.plugins.CompactEventStore.Event;
+import rx.plugins.DebugNotification;
+import rx.plugins.DebugNotification.Kind;
+import rx.plugins.DebugRegistry;
+import rx.plugins.ValueCapture;
+
+public class CompactEventStoreTest {
+    @Test
+    public void testOverwritesOldest() {
+        CompactEventStore store = new CompactEventStore(4, false, false);
+        for (int i = 0; i < 6; i++) {
+            long seq = store.start(Kind.Request, 1, i, i, 2, 3, 4, null);
+            store.end(seq, i + 10, null);
+        }
+
+        List<Event> events = store.getSnapshot();
+        assertEquals(4, events.size());
+        for (int i = 0; i < 4; i++) {
+            Event event = events.get(i);
+            assertEquals(i + 2, event.getSequence());
+            assertEquals(Kind.Request, event.getKind());
+            assertEquals(i + 2, event.getN());
+            assertEquals(10, event.getEnd() - event.getStart());
+            assertEquals(2, event.getSubscriberId());
+            assertEquals(3, event.getFromId());
+            assertEquals(4, event.getToId());
+        }
+    }
+
+    @Test
+    public void testLostEndsCounted() {
+        CompactDebugNotificationListener listener = new CompactDebugNotificationListener(new CompactEventStore(8, false, false));
+        Subscriber<Integer> s = Subscribers.empty();
+        Object outer = listener.start(DebugNotification.createOnNext(s, null, 1, null));
+        Object inner = listener.start(DebugNotification.createOnNext(s, null, 2, null));
+        listener.complete(outer);
+        listener.complete(inner);
+
+        assertEquals(2, listener.getLostEnds());
+        List<Event> events = listener.getStore().getSnapshot();
+        assertTrue(events.get(0).getEnd() != -1);
+        assertEquals(-1, events.get(1).getEnd());
+    }
+
+    @Test
+    public void testCaptureSkippedWhenValuesDropped() {
+        final int[] captured = new int[1];
+        ValueCapture counting = new ValueCapture() {
+            @Override
+            public Object capture(Object value) {
+                captured[0]++;
+                return value;
+            }
+        };
+        Subscriber<Integer> s = Subscribers.empty();
+        CompactDebugNotificationListener without = new CompactDebugNotificationListener(new CompactEventStore(2, false, false));
+        without.complete(without.start(DebugNotification.createOnNext(s, null, 1, null).setValueCapture(counting)));
+        assertEquals(0, captured[0]);
+
+        CompactDebugNotificationListener with = new CompactDebugNotificationListener(new CompactEventStore(2, false, true));
+        with.complete(with.start(DebugNotification.createOnNext(s, null, 1, null).setValueCapture(counting)));
+        assertEquals(1, captured[0]);
+    }
+
+    @Test
+    public void testValuesOnlyKeptOnRequest() {
+        RuntimeException e = new RuntimeException();
+        for (boolean offHeap : new boolean[] { false, true }) {
+            CompactEventStore without = new CompactEventStore(2, offHeap, false);
+            without.end(without.start(Kind.OnNext, 1, 1, -1, 1, 1, 1, "value"), 2, e);
+            assertNull(without.getSnapshot().get(0).getValue());
+            assertNull(without.getSnapshot().get(0).getError());
+
+            CompactEventStore with = new CompactEventStore(2, offHeap, true);
+            with.end(with.start(Kind.OnNext, 1, 1, -1, 1, 1, 1, "value"), 2, e);
+            assertEquals("value", with.getSnapshot().get(0).getValue());
+            assertSame(e, with.getSnapshot().get(0).getError());
+        }
+    }
+
+    @Test
+    public void testListener() {
+        CompactEventStore store = new CompactEventStore(16, true, false);
+        CompactDebugNotificationListener listener = new CompactDebugNotificationListener(store);
+        final RuntimeException e = new RuntimeException();
+        Subscriber<Integer> actual = Subscribers.create(new Action1<Integer>() {
+            @Override
+            public void call(Integer t) {
+                if (t == 2)
+                    throw e;
+            }
+        });
+        DebugSubscriber<Integer, Object> s = new DebugSubscriber<Integer, Object>(listener, actual, null, null);
+        s.onNext(1);
+        try {
+            s.onNext(2);
+            fail();
+        } catch (RuntimeException thrown) {
+            assertSame(e, thrown);
+        }
+        s.onCompleted();
+
+        List<Event> events = store.getSnapshot();
+        assertEquals(3, events.size());
+        assertEquals(Kind.OnNext, events.get(0).getKind());
+        assertEquals(Kind.OnNext, events.get(1).getKind());
+        assertEquals(Kind.OnCompleted, events.get(2).getKind());
+        for (Event event : events) {
+            assertEquals(DebugRegistry.getInstance().id(actual), event.getSubscriberId());
+            assertTrue(event.getEnd() >= event.getStart());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.CompositeDebugNotificationListener;
+import rx.plugins.CountingDebugNotificationListener;
+import rx.plugins.DebugNotification;
+import rx.plugins.DebugNotificationListener;
+import rx.plugins.SimpleContext;
+import rx.plugins.SimpleDebugNotificationListener;
+
+public class CompositeDebugNotificationListenerTest {
+    private static class Doubling extends DebugNotificationListener<Object> {
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> T onNext(DebugNotification<T> n) {
+            return (T) (Integer) ((Integer) n.getValue() * 2);
+        }
+    }
+
+    @Test
+    public void testFanOut() {
+        SimpleDebugNotificationListener simple = new SimpleDebugNotificationListener();
+        CountingDebugNotificationListener counting = new CountingDebugNotificationListener();
+        CompositeDebugNotificationListener composite = new CompositeDebugNotificationListener(new Doubling(), simple, counting, new Doubling());
+
+        final List<Integer> received = new ArrayList<Integer>();
+        Subscriber<Integer> actual = Subscribers.create(new Action1<Integer>() {
+            @Override
+            public void call(Integer t) {
+                received.add(t);
+            }
+        });
+        Subscriber<Integer> s = new DebugSubscriber<Integer, Object>(composite, actual, null, null);
+        s.onNext(1);
+        s.onNext(2);
+        s.onCompleted();
+
+        assertEquals(Arrays.asList(4, 8), received);
+        assertEquals(2, counting.snapshot().get(null).getOnNext());
+        List<SimpleContext<?>> contexts = simple.getNotificationsInOrder();
+        assertEquals(3, contexts.size());
+        for (SimpleContext<?> c : contexts) {
+            assertTrue(c.getEnd() != -1);
+        }
+    }
+
+    @Test
+    public void testChainedValueLeavesNotificationUnchanged() {
+        final List<Object> kept = new ArrayList<Object>();
+        final List<Object> chained = new ArrayList<Object>();
+        final List<Object> started = new ArrayList<Object>();
+        DebugNotificationListener<Object> keeping = new DebugNotificationListener<Object>() {
+            @Override
+            public <T> T onNext(DebugNotification<T> n) {
+                kept.add(n.snapshot());
+                return n.getValue();
+            }
+        };
+        DebugNotificationListener<Object> recording = new DebugNotificationListener<Object>() {
+            @Override
+            public <T> T onNext(DebugNotification<T> n) {
+                chained.add(n.getValue());
+                return n.getValue();
+            }
+
+            @Override
+            public <T> Object start(DebugNotification<T> n) {
+                started.add(n.getValue());
+                return null;
+            }
+        };
+        CompositeDebugNotificationListener composite = new CompositeDebugNotificationListener(keeping, new Doubling(), recording);
+        final List<Integer> received = new ArrayList<Integer>();
+        Subscriber<Integer> actual = Subscribers.create(new Action1<Integer>() {
+            @Override
+            public void call(Integer t) {
+                received.add(t);
+            }
+        });
+        Subscriber<Integer> s = new DebugSubscriber<Integer, Object>(composite, actual, null, null, true);
+        s.onNext(1);
+
+        assertEquals(Arrays.asList(2), received);
+        assertEquals(Arrays.<Object> asList(2), chained);
+        assertEquals(Arrays.<Object> asList(1), started);
+        assertEquals(1, ((DebugNotification<?>) kept.get(0)).getValue());
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import rx.Observable.Operator;
+import rx.Producer;
+import rx.Subscriber;
+import rx.operators.DebugSubscriber;
+import rx.plugins.AssemblySite;
+import rx.plugins.AssemblyTracker;
+import rx.plugins.CountingDebugNotificationListener;
+import rx.plugins.CountingDebugNotificationListener.Counts;
+
+public class CountingDebugNotificationListenerTest {
+    private static class Pass implements Operator<Integer, Integer> {
+        @Override
+        public Subscriber<? super Integer> call(Subscriber<? super Integer> child) {
+            return child;
+        }
+    }
+
+    private static class Other extends Pass {
+    }
+
+    private static class Actual extends Subscriber<Integer> {
+        Producer producer;
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onError(Throwable e) {
+        }
+
+        @Override
+        public void onNext(Integer t) {
+        }
+
+        @Override
+        public void setProducer(Producer producer) {
+            this.producer = producer;
+        }
+    }
+
+    private static final Producer NOOP = new Producer() {
+        @Override
+        public void request(long n) {
+        }
+    };
+
+    @Test
+    public void testCountsByOperatorClass() {
+        CountingDebugNotificationListener listener = new CountingDebugNotificationListener();
+        Actual a = new Actual();
+        DebugSubscriber<Integer, Object> s1 = new DebugSubscriber<Integer, Object>(listener, a, new Pass(), null);
+        DebugSubscriber<Integer, Object> s2 = new DebugSubscriber<Integer, Object>(listener, new Actual(), new Pass(), null);
+        DebugSubscriber<Integer, Object> s3 = new DebugSubscriber<Integer, Object>(listener, new Actual(), new Other(), null);
+        DebugSubscriber<Integer, Object> source = new DebugSubscriber<Integer, Object>(listener, new Actual(), null, null);
+
+        s1.setProducer(NOOP);
+        a.producer.request(5);
+        a.producer.request(3);
+        a.producer.request(Long.MAX_VALUE);
+        s1.onNext(1);
+        s1.onNext(2);
+        s2.onNext(3);
+        s2.onCompleted();
+        s3.onNext(4);
+        s3.onError(new RuntimeException());
+        source.onNext(5);
+
+        Map<String, Counts> snapshot = listener.snapshot();
+        assertEquals(3, snapshot.size());
+        Counts pass = snapshot.get(Pass.class.getName());
+        assertEquals(3, pass.getOnNext());
+        assertEquals(8, pass.getRequested());
+        assertEquals(1, pass.getUnboundedRequests());
+        assertEquals(1, pass.getCompleted());
+        assertEquals(0, pass.getErrors());
+        Counts other = snapshot.get(Other.class.getName());
+        assertEquals(1, other.getOnNext());
+        assertEquals(1, other.getErrors());
+        assertEquals(1, snapshot.get(null).getOnNext());
+    }
+
+    @Test
+    public void testCountsBySite() {
+        CountingDebugNotificationListener listener = new CountingDebugNotificationListener();
+        Pass tracked = new Pass();
+        AssemblySite site = new AssemblyTracker(1, 8).capture(tracked);
+        DebugSubscriber<Integer, Object> s1 = new DebugSubscriber<Integer, Object>(listener, new Actual(), tracked, null);
+        s1.setAssemblySite(site);
+        DebugSubscriber<Integer, Object> s2 = new DebugSubscriber<Integer, Object>(listener, new Actual(), new Pass(), null);
+        s1.onNext(1);
+        s1.onNext(2);
+        s2.onNext(3);
+
+        Map<String, Counts> bySite = listener.snapshotBySite();
+        assertEquals(2, bySite.get(site.toString()).getOnNext());
+        assertEquals(1, bySite.get(Pass.class.getName()).getOnNext());
+        assertEquals(0, bySite.get(null).getOnNext());
+        assertEquals(3, listener.snapshot().get(Pass.class.getName()).getOnNext());
+    }
+
+    @Test
+    public void testManyOperators() {
+        CountingDebugNotificationListener listener = new CountingDebugNotificationListener();
+        Pass[] ops = new Pass[500];
+        for (int i = 0; i < ops.length; i++) {
+            ops[i] = new Pass();
+            new DebugSubscriber<Integer, Object>(listener, new Actual(), ops[i], null).onNext(i);
+        }
+        for (Pass op : ops) {
+            new DebugSubscriber<Integer, Object>(listener, new Actual(), op, null).onNext(0);
+        }
+        assertEquals(2 * ops.length, listener.snapshot().get(Pass.class.getName()).getOnNext());
+    }
+
+    @Test(timeout = 10000)
+    public void testConcurrentIncrements() throws InterruptedException {
+        final CountingDebugNotificationListener listener = new CountingDebugNotificationListener();
+        final Pass op = new Pass();
+        final int threads = 4;
+        final int perThread = 10000;
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    DebugSubscriber<Integer, Object> s = new DebugSubscriber<Integer, Object>(listener, new Actual(), op, null);
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        s.onNext(i);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        assertNull(listener.snapshot().get(Pass.class.getName()));
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Counts counts = listener.snapshot().get(Pass.class.getName());
+        assertEquals(threads * perThread, counts.getOnNext());
+        // no earlier snapshot had the class so there is nothing to compute a rate from
+        assertEquals(0, counts.getOnNextRate(), 0);
+
+        new DebugSubscriber<Integer, Object>(listener, new Actual(), op, null).onNext(0);
+        counts = listener.snapshot().get(Pass.class.getName());
+        assertEquals(threads * perThread + 1, counts.getOnNext());
+        assertTrue(counts.getOnNextRate() > 0);
+    }
+}
@@ -12,7 +12,12 @@
  */
 package rx.debug;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -23,18 +28,32 @@ import org.junit.Before;
 import org.junit.Test;
 
 import rx.Observable;
+import rx.Observable.OnSubscribe;
+import rx.Observable.Operator;
+import rx.Subscriber;
+import rx.functions.Action1;
 import rx.functions.Func1;
 import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.AssemblySite;
+import rx.plugins.AssemblyTracker;
+import rx.plugins.DebugFilter;
 import rx.plugins.DebugHook;
+import rx.plugins.DebugNotification;
+import rx.plugins.DebugNotificationListener;
+import rx.plugins.DebugSampler;
 import rx.plugins.DebugNotification.Kind;
 import rx.plugins.PlugReset;
 import rx.plugins.RxJavaPlugins;
 import rx.plugins.SimpleContext;
 import rx.plugins.SimpleDebugNotificationListener;
 import rx.plugins.SimpleDebugNotificationListener.NotificationsByObservable;
+import rx.plugins.ValueCapture;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.SortedSet;
 
 public class DebugHookTest {
@@ -75,6 +94,243 @@ public class DebugHookTest {
         assertValidState(listener);
     }
 
+    @Test
+    public void testReusedOnNextNotification() {
+        final List<DebugNotification<?>> seen = new ArrayList<DebugNotification<?>>();
+        final List<DebugNotification<?>> kept = new ArrayList<DebugNotification<?>>();
+        DebugNotificationListener<Object> listener = new DebugNotificationListener<Object>() {
+            @Override
+            public <T> Object start(DebugNotification<T> n) {
+                if (n.getKind() == Kind.OnNext) {
+                    seen.add(n);
+                    kept.add(n.snapshot());
+                }
+                return null;
+            }
+        };
+
+        DebugSubscriber<Integer, Object> s = new DebugSubscriber<Integer, Object>(listener, Subscribers.<Integer> empty(), null, null, true);
+        s.onNext(1);
+        s.onNext(2);
+
+        assertEquals(2, seen.size());
+        assertSame(seen.get(0), seen.get(1));
+        assertTrue(seen.get(0).isReusable());
+        assertEquals(2, seen.get(1).getValue());
+        assertNotSame(seen.get(0), kept.get(0));
+        assertFalse(kept.get(0).isReusable());
+        assertEquals(1, kept.get(0).getValue());
+        assertEquals(2, kept.get(1).getValue());
+    }
+
+    @Test
+    public void testSampledSubscriptions() {
+        final DebugHook<Object> hook = new DebugHook<Object>(new DebugNotificationListener<Object>() {
+        });
+        hook.setSampler(DebugSampler.oneIn(2));
+
+        final Operator<Integer, Integer> op = new Operator<Integer, Integer>() {
+            @Override
+            public Subscriber<? super Integer> call(Subscriber<? super Integer> child) {
+                return Subscribers.<Integer> empty();
+            }
+        };
+        final List<Subscriber<?>> subscribed = new ArrayList<Subscriber<?>>();
+        final List<Subscriber<?>> lifted = new ArrayList<Subscriber<?>>();
+        final OnSubscribe<Integer> f = new OnSubscribe<Integer>() {
+            @Override
+            public void call(Subscriber<? super Integer> o) {
+                subscribed.add(o);
+                lifted.add(hook.onLift(op).call(o));
+            }
+        };
+
+        for (int i = 0; i < 4; i++) {
+            hook.onSubscribeStart(null, f).call(Subscribers.<Integer> empty());
+        }
+
+        for (int i = 0; i < 4; i++) {
+            boolean sampled = i % 2 == 0;
+            assertEquals(sampled, subscribed.get(i) instanceof DebugSubscriber);
+            assertEquals(sampled, lifted.get(i) instanceof DebugSubscriber);
+        }
+    }
+
+    @Test
+    public void testEnableAndSwapListener() {
+        final List<String> seen = new ArrayList<String>();
+        final DebugHook<Object> hook = new DebugHook<Object>(new RecordingListener("a", seen));
+        final Operator<Integer, Integer> op = new Operator<Integer, Integer>() {
+            @Override
+            public Subscriber<? super Integer> call(Subscriber<? super Integer> child) {
+                return Subscribers.<Integer> empty();
+            }
+        };
+        @SuppressWarnings("unchecked")
+        Subscriber<Integer> s = (Subscriber<Integer>) hook.onLift(op).call(Subscribers.<Integer> empty());
+        s.onNext(1);
+        hook.setListener(new RecordingListener("b", seen));
+        s.onNext(2);
+        hook.setEnabled(false);
+        s.onNext(3);
+        assertFalse(hook.onLift(op).call(Subscribers.<Integer> empty()) instanceof DebugSubscriber);
+        hook.setEnabled(true);
+        s.onNext(4);
+
+        assertEquals(Arrays.asList("a1", "b2", "b4"), seen);
+    }
+
+    @Test
+    public void testSourceCreatedWhileDisabled() {
+        final DebugHook<Object> hook = new DebugHook<Object>(new DebugNotificationListener<Object>() {
+        });
+        hook.setEnabled(false);
+        final List<Subscriber<?>> subscribed = new ArrayList<Subscriber<?>>();
+        OnSubscribe<Integer> f = hook.onCreate(new OnSubscribe<Integer>() {
+            @Override
+            public void call(Subscriber<? super Integer> o) {
+                subscribed.add(o);
+            }
+        });
+
+        hook.onSubscribeStart(null, f).call(Subscribers.<Integer> empty());
+        hook.setEnabled(true);
+        hook.onSubscribeStart(null, f).call(Subscribers.<Integer> empty());
+
+        assertFalse(subscribed.get(0) instanceof DebugSubscriber);
+        assertTrue(subscribed.get(1) instanceof DebugSubscriber);
+    }
+
+    @Test
+    public void testValueCapture() {
+        SimpleDebugNotificationListener listener = new SimpleDebugNotificationListener();
+        DebugHook<SimpleContext<?>> hook = new DebugHook<SimpleContext<?>>(listener);
+        hook.setValueCapture(ValueCapture.truncated(4));
+        final List<String> received = new ArrayList<String>();
+        Subscriber<String> actual = Subscribers.create(new Action1<String>() {
+            @Override
+            public void call(String t) {
+                received.add(t);
+            }
+        });
+        Subscriber<String> s = new DebugSubscriber<String, SimpleContext<?>>(hook, actual, null, null, true, -1);
+        s.onNext("a large payload");
+        hook.setValueCapture(ValueCapture.sizeEstimate());
+        s.onNext("b");
+
+        assertEquals(Arrays.asList("a large payload", "b"), received);
+        List<SimpleContext<?>> stored = listener.getNotificationsInOrder();
+        assertEquals(2, stored.size());
+        DebugNotification<?> first = stored.get(0).getNotification();
+        assertEquals(null, first.getValue());
+        assertEquals("a la...", first.getCapturedValue());
+        assertTrue(first.toString().contains("\"value\": \"a la...\""));
+        assertEquals("java.lang.String ~42 bytes", stored.get(1).getNotification().getCapturedValue());
+    }
+
+    private static class RecordingListener extends DebugNotificationListener<Object> {
+        private final String name;
+        private final List<String> seen;
+
+        RecordingListener(String name, List<String> seen) {
+            this.name = name;
+            this.seen = seen;
+        }
+
+        @Override
+        public <T> Object start(DebugNotification<T> n) {
+            if (n.getKind() == Kind.OnNext)
+                seen.add(name + n.getValue());
+            return null;
+        }
+    }
+
+    @Test
+    public void testFilter() {
+        final List<Kind> kinds = new ArrayList<Kind>();
+        final DebugHook<Object> hook = new DebugHook<Object>(new DebugNotificationListener<Object>() {
+            @Override
+            public <T> Object start(DebugNotification<T> n) {
+                kinds.add(n.getKind());
+                return null;
+            }
+        });
+        final Operator<Integer, Integer> traced = new Operator<Integer, Integer>() {
+            @Override
+            public Subscriber<? super Integer> call(Subscriber<? super Integer> child) {
+                return Subscribers.<Integer> empty();
+            }
+        };
+        final Operator<Integer, Integer> ignored = new Operator<Integer, Integer>() {
+            @Override
+            public Subscriber<? super Integer> call(Subscriber<? super Integer> child) {
+                return Subscribers.<Integer> empty();
+            }
+        };
+        hook.setFilter(DebugFilter.classes(traced.getClass()).withKinds(Kind.OnNext));
+
+        assertFalse(hook.onLift(ignored).call(Subscribers.<Integer> empty()) instanceof DebugSubscriber);
+        @SuppressWarnings("unchecked")
+        Subscriber<Integer> s = (Subscriber<Integer>) hook.onLift(traced).call(Subscribers.<Integer> empty());
+        assertTrue(s instanceof DebugSubscriber);
+        s.onStart();
+        s.onNext(1);
+        s.onCompleted();
+        assertEquals(Arrays.asList(Kind.OnNext), kinds);
+    }
+
+    @Test
+    public void testAssemblySite() {
+        final List<AssemblySite> sites = new ArrayList<AssemblySite>();
+        final DebugHook<Object> hook = new DebugHook<Object>(new DebugNotificationListener<Object>() {
+            @Override
+            public <T> Object start(DebugNotification<T> n) {
+                if (n.getKind() == Kind.OnNext)
+                    sites.add(n.getAssemblySite());
+                return null;
+            }
+        });
+        final AssemblyTracker tracker = new AssemblyTracker();
+        hook.setAssemblyTracker(tracker);
+
+        final Operator<Integer, Integer> op = new Operator<Integer, Integer>() {
+            @Override
+            public Subscriber<? super Integer> call(Subscriber<? super Integer> child) {
+                return child;
+            }
+        };
+        for (int i = 0; i < 2; i++) {
+            @SuppressWarnings("unchecked")
+            Subscriber<Integer> s = (Subscriber<Integer>) hook.onLift(op).call(Subscribers.<Integer> empty());
+            s.onNext(i);
+        }
+
+        assertEquals(2, sites.size());
+        assertEquals(1, tracker.getSiteCount());
+        AssemblySite site = sites.get(0);
+        assertEquals(op.getClass().getName(), site.getClassName());
+        assertEquals(DebugHookTest.class.getName(), site.getCallSite().getClassName());
+        assertEquals("testAssemblySite", site.getCallSite().getMethodName());
+        for (AssemblySite s : sites) {
+            assertSame(site, s);
+        }
+    }
+
+    @Test
+    public void testAssemblySiteCapturedOncePerInstance() {
+        final AssemblyTracker tracker = new AssemblyTracker(2, 8);
+        final Object sampled = new Object();
+        final Object skipped = new Object();
+
+        AssemblySite site = tracker.capture(sampled);
+        assertNotNull(site);
+        assertNull(tracker.capture(skipped));
+        // without remembering the decision the third call would be sampled
+        assertNull(tracker.capture(skipped));
+        assertSame(site, tracker.capture(sampled));
+        assertEquals(1, tracker.getSiteCount());
+    }
+
     public void assertValidState(SimpleDebugNotificationListener listener) {
         SortedSet<NotificationsByObservable<?>> snapshot = listener.getNotificationsByObservable();
         System.out.println(listener.toString(snapshot));
@@ -0,0 +1,231 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import rx.Subscriber;
+import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.DebugHttpEndpoint;
+import rx.plugins.RingBufferDebugNotificationListener;
+import rx.plugins.RollingWindowDebugNotificationListener;
+import rx.plugins.SimpleContext;
+
+public class DebugHttpEndpointTest {
+    @Test
+    public void testPaging() throws IOException {
+        RingBufferDebugNotificationListener events = new RingBufferDebugNotificationListener(16);
+        RollingWindowDebugNotificationListener metrics = new RollingWindowDebugNotificationListener();
+        Subscriber<Integer> s = new DebugSubscriber<Integer, SimpleContext<?>>(events, Subscribers.<Integer> empty(), null, null);
+        Subscriber<Integer> m = new DebugSubscriber<Integer, Object>(metrics, Subscribers.<Integer> empty(), null, null);
+        for (int i = 0; i < 5; i++) {
+            s.onNext(i);
+            m.onNext(i);
+        }
+
+        // a decimal comma in the metrics would not be JSON
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        DebugHttpEndpoint endpoint = new DebugHttpEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        try {
+            endpoint.addEvents(events).addMetrics(metrics);
+            String base = "http://127.0.0.1:" + endpoint.getAddress().getPort();
+
+            HttpURLConnection c = (HttpURLConnection) new URL(base + "/events?offset=1&limit=2").openConnection();
+            List<String> lines = read(c);
+            assertEquals("5", c.getHeaderField("X-Total-Count"));
+            assertEquals(2, lines.size());
+            assertTrue(lines.get(0), lines.get(0).contains("\"value\": \"1\""));
+            assertTrue(lines.get(1), lines.get(1).contains("\"value\": \"2\""));
+
+            lines = read((HttpURLConnection) new URL(base + "/metrics?seconds=60").openConnection());
+            assertEquals(1, lines.size());
+            assertTrue(lines.get(0), lines.get(0).startsWith("{\"name\": null, \"value\": {\"windowNanos\": "));
+
+            lines = read((HttpURLConnection) new URL(base + "/").openConnection());
+            assertEquals(2, lines.size());
+            assertEquals(404, ((HttpURLConnection) new URL(base + "/missing").openConnection()).getResponseCode());
+        } finally {
+            endpoint.close();
+            Locale.setDefault(locale);
+        }
+    }
+
+    private static List<String> read(HttpURLConnection c) throws IOException {
+        assertEquals(200, c.getResponseCode());
+        BufferedReader in = new BufferedReader(new InputStreamReader(c.getInputStream(), "UTF-8"));
+        List<String> lines = new ArrayList<String>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            new JsonChecker(line).check();
+            lines.add(line);
+        }
+        in.close();
+        return lines;
+    }
+
+    /**
+     * Fails unless the line is exactly one JSON value.
+     */
+    private static final class JsonChecker {
+        private final String s;
+        private int i;
+
+        JsonChecker(String s) {
+            this.s = s;
+        }
+
+        void check() {
+            value();
+            space();
+            if (i != s.length())
+                fail("trailing characters");
+        }
+
+        private void value() {
+            space();
+            if (i >= s.length())
+                fail("missing value");
+            final char c = s.charAt(i);
+            if (c == '{') {
+                i++;
+                space();
+                if (peek() == '}') {
+                    i++;
+                    return;
+                }
+                do {
+                    space();
+                    string();
+                    space();
+                    expect(':');
+                    value();
+                    space();
+                } while (accept(','));
+                expect('}');
+            } else if (c == '[') {
+                i++;
+                space();
+                if (peek() == ']') {
+                    i++;
+                    return;
+                }
+                do {
+                    value();
+                    space();
+                } while (accept(','));
+                expect(']');
+            } else if (c == '"') {
+                string();
+            } else if (c == '-' || Character.isDigit(c)) {
+                number();
+            } else if (!literal("true") && !literal("false") && !literal("null")) {
+                fail("unexpected character");
+            }
+        }
+
+        private void string() {
+            expect('"');
+            while (i < s.length() && s.charAt(i) != '"') {
+                final char c = s.charAt(i++);
+                if (c < ' ')
+                    fail("control character in string");
+                if (c == '\\') {
+                    if (i >= s.length())
+                        fail("unfinished escape");
+                    final char e = s.charAt(i++);
+                    if (e == 'u') {
+                        for (int k = 0; k < 4; k++) {
+                            if (i >= s.length() || Character.digit(s.charAt(i++), 16) < 0)
+                                fail("bad unicode escape");
+                        }
+                    } else if ("\"\\/bfnrt".indexOf(e) < 0) {
+                        fail("bad escape");
+                    }
+                }
+            }
+            expect('"');
+        }
+
+        private void number() {
+            accept('-');
+            if (!accept('0'))
+                digits();
+            if (accept('.'))
+                digits();
+            if (accept('e') || accept('E')) {
+                if (!accept('+'))
+                    accept('-');
+                digits();
+            }
+        }
+
+        private void digits() {
+            final int start = i;
+            while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                i++;
+            }
+            if (i == start)
+                fail("digit expected");
+        }
+
+        private boolean literal(String word) {
+            if (!s.startsWith(word, i))
+                return false;
+            i += word.length();
+            return true;
+        }
+
+        private void space() {
+            while (i < s.length() && " \t\r\n".indexOf(s.charAt(i)) >= 0) {
+                i++;
+            }
+        }
+
+        private char peek() {
+            return i < s.length() ? s.charAt(i) : 0;
+        }
+
+        private boolean accept(char c) {
+            if (peek() != c)
+                return false;
+            i++;
+            return true;
+        }
+
+        private void expect(char c) {
+            if (!accept(c))
+                fail("'" + c + "' expected");
+        }
+
+        private void fail(String why) {
+            Assert.fail(why + " at " + i + " in " + s);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import rx.Subscriber;
+import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.DebugNotification;
+import rx.plugins.DebugNotificationListener;
+import rx.plugins.DebugRegistry;
+
+public class DebugRegistryTest {
+    @Test
+    public void testIds() {
+        DebugRegistry registry = DebugRegistry.getInstance();
+        Subscriber<Integer> a = Subscribers.empty();
+        Subscriber<Integer> b = Subscribers.empty();
+        int id = registry.id(a);
+        assertEquals(id, registry.id(a));
+        assertTrue(id != registry.id(b));
+        assertEquals(0, registry.id(null));
+        assertSame(registry.describe(a), registry.get(id));
+        assertEquals(a.getClass().getName(), registry.get(id).getClassName());
+    }
+
+    @Test
+    public void testNotificationIds() {
+        final DebugRegistry registry = DebugRegistry.getInstance();
+        final Subscriber<Integer> actual = Subscribers.empty();
+        final int[] seen = new int[1];
+        Subscriber<Integer> s = new DebugSubscriber<Integer, Object>(new DebugNotificationListener<Object>() {
+            @Override
+            public <T> Object start(DebugNotification<T> n) {
+                seen[0] = n.getObserverId();
+                return null;
+            }
+        }, actual, null, null);
+        s.onNext(1);
+        assertEquals(registry.id(actual), seen[0]);
+        assertEquals(registry.id(actual), DebugNotification.createOnNext(actual, null, 1, null).getObserverId());
+    }
+
+    @Test
+    public void testIdsResolvedLazily() {
+        final DebugRegistry registry = DebugRegistry.getInstance();
+        final Subscriber<Integer> actual = Subscribers.empty();
+        DebugSubscriber<Integer, Object> s = new DebugSubscriber<Integer, Object>(new DebugNotificationListener<Object>() {
+        }, actual, null, null);
+        // registered after the subscriber was made but before its id was asked for
+        int before = registry.id(new Object());
+        int id = s.getObserverId();
+        assertTrue(id > before);
+        assertEquals(id, registry.id(actual));
+        assertEquals(actual.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(actual)), registry.get(id).getName());
+    }
+}
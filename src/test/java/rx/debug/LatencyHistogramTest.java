@@ -0,0 +1,82 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import rx.Observable.Operator;
+import rx.Subscriber;
+import rx.functions.Func1;
+import rx.internal.operators.OperatorMap;
+import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.DebugNotification.Kind;
+import rx.plugins.LatencyHistogram;
+import rx.plugins.LatencyHistogramDebugNotificationListener;
+import rx.plugins.LatencyHistogramDebugNotificationListener.Key;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot(false);
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(10000, snapshot.getMax());
+        assertWithin(5000, snapshot.getValueAtPercentile(50));
+        assertWithin(9900, snapshot.getValueAtPercentile(99));
+        assertWithin(5000, (long) snapshot.getMean());
+        assertEquals(20000, snapshot.merge(snapshot).getCount());
+    }
+
+    @Test
+    public void testSnapshotAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-1);
+        assertEquals(2, histogram.snapshot(true).getCount());
+        assertEquals(0, histogram.snapshot(false).getCount());
+    }
+
+    @Test
+    public void testListener() {
+        LatencyHistogramDebugNotificationListener listener = new LatencyHistogramDebugNotificationListener();
+        Operator<Integer, Integer> map = new OperatorMap<Integer, Integer>(new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer t) {
+                return t;
+            }
+        });
+        Subscriber<Integer> s = new DebugSubscriber<Integer, Object>(listener, Subscribers.<Integer> empty(), map, null);
+        s.onNext(1);
+        s.onNext(2);
+        s.onCompleted();
+
+        Map<Key, LatencyHistogram.Snapshot> snapshot = listener.snapshot(true);
+        assertEquals(2, snapshot.size());
+        assertEquals(2, snapshot.get(new Key(OperatorMap.class.getName(), null, Kind.OnNext)).getCount());
+        assertEquals(1, snapshot.get(new Key(OperatorMap.class.getName(), null, Kind.OnCompleted)).getCount());
+        assertTrue(listener.snapshot(false).isEmpty());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " is not close to " + expected, Math.abs(expected - actual) <= expected * 0.04);
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import rx.Observable.OnSubscribe;
+import rx.Observable.Operator;
+import rx.Subscriber;
+import rx.functions.Func1;
+import rx.internal.operators.OperatorFilter;
+import rx.internal.operators.OperatorMap;
+import rx.observers.Subscribers;
+import rx.plugins.DebugHook;
+import rx.plugins.DebugNotification;
+import rx.plugins.LeakDetectorDebugNotificationListener;
+import rx.plugins.LeakDetectorDebugNotificationListener.Group;
+
+public class LeakDetectorDebugNotificationListenerTest {
+    private final OnSubscribe<Integer> source = new OnSubscribe<Integer>() {
+        @Override
+        public void call(Subscriber<? super Integer> t) {
+        }
+    };
+
+    @Test
+    public void testOpenUntilTerminated() throws InterruptedException {
+        LeakDetectorDebugNotificationListener listener = new LeakDetectorDebugNotificationListener(1, TimeUnit.MILLISECONDS);
+        Subscriber<Integer> completed = Subscribers.empty();
+        Subscriber<Integer> unsubscribed = Subscribers.empty();
+        Subscriber<Integer> leaked = Subscribers.empty();
+        for (Subscriber<Integer> s : Arrays.asList(completed, unsubscribed, leaked)) {
+            listener.start(DebugNotification.createSubscribe(s, null, source));
+        }
+        listener.start(DebugNotification.createOnCompleted(completed, null, null));
+        listener.start(DebugNotification.createUnsubscribe(unsubscribed, null, null));
+        assertEquals(1, listener.getOpenCount());
+
+        Thread.sleep(5);
+        Map<String, Group> groups = listener.getSuspectsByGroup();
+        assertEquals(1, groups.size());
+        Group group = groups.get(source.getClass().getName());
+        assertEquals(1, group.getCount());
+        assertTrue(group.getOldest().startsWith(leaked.getClass().getName() + "@"));
+    }
+
+    @Test
+    public void testGroupedByLastOperator() throws InterruptedException {
+        LeakDetectorDebugNotificationListener listener = new LeakDetectorDebugNotificationListener(1, TimeUnit.MILLISECONDS);
+        DebugHook<Object> hook = new DebugHook<Object>(listener);
+        Func1<Integer, Boolean> all = new Func1<Integer, Boolean>() {
+            @Override
+            public Boolean call(Integer t) {
+                return true;
+            }
+        };
+        OnSubscribe<Integer> mapped = lift(hook, hook.onCreate(source), new OperatorMap<Integer, Integer>(new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer t) {
+                return t;
+            }
+        }));
+        OnSubscribe<Integer> filtered = lift(hook, mapped, new OperatorFilter<Integer>(all));
+        hook.onSubscribeStart(null, mapped).call(Subscribers.<Integer> empty());
+        hook.onSubscribeStart(null, filtered).call(Subscribers.<Integer> empty());
+        hook.onSubscribeStart(null, filtered).call(Subscribers.<Integer> empty());
+
+        Thread.sleep(5);
+        Map<String, Group> groups = listener.getSuspectsByGroup();
+        assertEquals(2, groups.size());
+        assertEquals(1, groups.get(OperatorMap.class.getName()).getCount());
+        assertEquals(2, groups.get(OperatorFilter.class.getName()).getCount());
+    }
+
+    /**
+     * @return what Observable.lift subscribes to.
+     */
+    private static OnSubscribe<Integer> lift(final DebugHook<Object> hook, final OnSubscribe<Integer> source, final Operator<Integer, Integer> op) {
+        return new OnSubscribe<Integer>() {
+            @Override
+            public void call(Subscriber<? super Integer> o) {
+                source.call(hook.onLift(op).call(o));
+            }
+        };
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.DebugNotification.Kind;
+import rx.plugins.DebugRegistry;
+import rx.plugins.MappedTraceDebugNotificationListener;
+import rx.plugins.MappedTraceReader;
+import rx.plugins.MappedTraceReader.Event;
+
+public class MappedTraceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File dir = folder.getRoot();
+        MappedTraceDebugNotificationListener listener = new MappedTraceDebugNotificationListener(dir, "trace", 4096, 4);
+        Subscriber<Integer> actual = Subscribers.create(new Action1<Integer>() {
+            @Override
+            public void call(Integer t) {
+                if (t == 2)
+                    throw new IllegalArgumentException();
+            }
+        });
+        DebugSubscriber<Integer, Object> s = new DebugSubscriber<Integer, Object>(listener, actual, null, null);
+        s.onNext(1);
+        try {
+            s.onNext(2);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        s.onCompleted();
+        listener.close();
+
+        List<Event> events = new MappedTraceReader(dir, "trace").read();
+        assertEquals(3, events.size());
+        assertEquals(Kind.OnNext, events.get(0).getKind());
+        assertEquals(Kind.OnCompleted, events.get(2).getKind());
+        for (Event event : events) {
+            assertEquals(actual.getClass().getName(), event.getObserver());
+            assertEquals(DebugRegistry.getInstance().id(actual), event.getObserverId());
+            assertEquals(Thread.currentThread().getId(), event.getThreadId());
+            assertTrue(event.getEnd() >= event.getStart());
+        }
+        assertNull(events.get(0).getError());
+        assertEquals(IllegalArgumentException.class.getName(), events.get(1).getError());
+    }
+
+    @Test
+    public void testRolling() throws IOException {
+        File dir = folder.getRoot();
+        // 4 records per segment
+        MappedTraceDebugNotificationListener listener = new MappedTraceDebugNotificationListener(dir, "roll", 256, 2);
+        DebugSubscriber<Integer, Object> s = new DebugSubscriber<Integer, Object>(listener, Subscribers.<Integer> empty(), null, null);
+        for (int i = 0; i < 10; i++) {
+            s.onNext(i);
+        }
+        listener.close();
+
+        assertEquals(2, dir.listFiles().length - 1);
+        // the last two segments hold the start and end of the last four onNexts.
+        List<Event> events = new MappedTraceReader(dir, "roll").read();
+        assertEquals(4, events.size());
+        assertEquals(6, events.get(0).getSequence());
+        assertEquals(9, events.get(3).getSequence());
+        StringBuilder json = new StringBuilder();
+        new MappedTraceReader(dir, "roll").toJson(json);
+        assertTrue(json.toString().startsWith("[\n  {\"seq\": 6"));
+    }
+
+    @Test
+    public void testSegmentNamesIgnoreLocale() throws IOException {
+        File dir = folder.getRoot();
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("th-TH-u-nu-thai"));
+        try {
+            MappedTraceDebugNotificationListener listener = new MappedTraceDebugNotificationListener(dir, "thai", 256, 2);
+            DebugSubscriber<Integer, Object> s = new DebugSubscriber<Integer, Object>(listener, Subscribers.<Integer> empty(), null, null);
+            s.onNext(1);
+            listener.close();
+        } finally {
+            Locale.setDefault(locale);
+        }
+
+        for (String name : dir.list()) {
+            if (name.startsWith("thai.") && name.endsWith(".trace"))
+                assertTrue(name, name.matches("thai\\.[0-9]{8}\\.trace"));
+        }
+        assertEquals(1, new MappedTraceReader(dir, "thai").read().size());
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.DebugRegistry;
+import rx.plugins.NdjsonDebugNotificationListener;
+
+public class NdjsonDebugNotificationListenerTest {
+    @Test
+    public void testWriter() throws IOException {
+        StringWriter out = new StringWriter();
+        NdjsonDebugNotificationListener listener = new NdjsonDebugNotificationListener(out, 64, 1, TimeUnit.HOURS);
+        Subscriber<String> actual = Subscribers.create(new Action1<String>() {
+            @Override
+            public void call(String t) {
+            }
+        }, new Action1<Throwable>() {
+            @Override
+            public void call(Throwable e) {
+            }
+        });
+        Subscriber<String> s = new DebugSubscriber<String, Object>(listener, actual, null, null);
+        s.onNext("a \"quoted\"\nline \u00e9\u4e2d");
+        s.onNext("b");
+        s.onError(new RuntimeException("failed"));
+        listener.flush();
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(3, lines.length);
+        String observer = "\"observer\":\"" + DebugRegistry.getInstance().describe(actual).getName() + "\",\"observerId\":" + DebugRegistry.getInstance().id(actual);
+        assertTrue(lines[0], lines[0].startsWith("{\"type\":\"OnNext\",\"nanos\":"));
+        assertTrue(lines[0], lines[0].contains(observer));
+        assertTrue(lines[0], lines[0].endsWith(",\"value\":\"a \\\"quoted\\\"\\nline \u00e9\u4e2d\"}"));
+        assertTrue(lines[2], lines[2].endsWith(",\"exception\":\"java.lang.RuntimeException\",\"message\":\"failed\"}"));
+    }
+
+    @Test
+    public void testChannel() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NdjsonDebugNotificationListener listener = new NdjsonDebugNotificationListener(Channels.newChannel(out), 1024, 1, TimeUnit.HOURS);
+        Subscriber<Integer> s = new DebugSubscriber<Integer, Object>(listener, Subscribers.<Integer> empty(), null, null);
+        s.onNext(-42);
+        assertEquals(0, out.size());
+        listener.close();
+
+        String line = new String(out.toByteArray(), "UTF-8");
+        assertTrue(line, line.endsWith(",\"value\":-42}\n"));
+    }
+
+    @Test(timeout = 10000)
+    public void testWrittenAfterIntervalWithoutFlush() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NdjsonDebugNotificationListener listener = new NdjsonDebugNotificationListener(Channels.newChannel(out), 1024, 10, TimeUnit.MILLISECONDS);
+        final Subscriber<Integer> s = new DebugSubscriber<Integer, Object>(listener, Subscribers.<Integer> empty(), null, null);
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                s.onNext(1);
+            }
+        });
+        other.start();
+        other.join();
+        s.onNext(2);
+        while (new String(out.toByteArray(), "UTF-8").split("\n").length < 2) {
+            Thread.sleep(10);
+        }
+        listener.close();
+
+        String text = new String(out.toByteArray(), "UTF-8");
+        assertTrue(text, text.contains(",\"value\":1}\n"));
+        assertTrue(text, text.contains(",\"value\":2}\n"));
+        assertEquals(0, listener.getDropped());
+    }
+}
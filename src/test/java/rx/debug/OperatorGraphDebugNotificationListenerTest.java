@@ -0,0 +1,128 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import rx.Observable.OnSubscribe;
+import rx.Observable.Operator;
+import rx.Subscriber;
+import rx.functions.Func1;
+import rx.internal.operators.OperatorMap;
+import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.DebugHook;
+import rx.plugins.DebugNotification;
+import rx.plugins.OperatorGraphDebugNotificationListener;
+import rx.plugins.OperatorGraphDebugNotificationListener.Link;
+
+public class OperatorGraphDebugNotificationListenerTest {
+    @Test
+    public void testChain() {
+        OperatorGraphDebugNotificationListener listener = new OperatorGraphDebugNotificationListener();
+        Operator<Integer, Integer> map = new OperatorMap<Integer, Integer>(new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer t) {
+                return t;
+            }
+        });
+        Subscriber<Integer> last = Subscribers.empty();
+        Subscriber<Integer> inner = Subscribers.empty();
+        // the source emits into the subscriber made by map which emits to the last subscriber
+        DebugSubscriber<Integer, Object> mapIn = new DebugSubscriber<Integer, Object>(listener, inner, null, map);
+        DebugSubscriber<Integer, Object> mapOut = new DebugSubscriber<Integer, Object>(listener, last, map, null);
+        mapIn.setDownstream(mapOut);
+        mapIn.onNext(1);
+        mapOut.onNext(1);
+
+        assertEquals(2, listener.getSubscriberCount());
+        assertEquals(1, listener.getOperatorCount());
+        List<Link> chain = listener.getChain(last);
+        assertEquals(2, chain.size());
+        assertSame(inner, chain.get(0).getObserver());
+        assertNull(chain.get(0).getFrom());
+        assertSame(map, chain.get(0).getTo());
+        assertSame(last, chain.get(1).getObserver());
+        assertSame(map, chain.get(1).getFrom());
+        assertEquals(chain.size(), listener.getChain(inner).size());
+
+        mapIn.onCompleted();
+        mapOut.onCompleted();
+        assertEquals(0, listener.getSubscriberCount());
+        assertEquals(0, listener.getOperatorCount());
+        assertEquals(0, listener.getChain(last).size());
+    }
+
+    @Test
+    public void testSubscriptionsSharingAnOperator() {
+        OperatorGraphDebugNotificationListener listener = new OperatorGraphDebugNotificationListener();
+        final DebugHook<Object> hook = new DebugHook<Object>(listener);
+        final OnSubscribe<Integer> source = hook.onCreate(new OnSubscribe<Integer>() {
+            @Override
+            public void call(Subscriber<? super Integer> s) {
+                s.onNext(1);
+            }
+        });
+        final Operator<Integer, Integer> map = new OperatorMap<Integer, Integer>(new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer t) {
+                return t;
+            }
+        });
+        // what Observable.lift does on every subscribe
+        OnSubscribe<Integer> mapped = new OnSubscribe<Integer>() {
+            @Override
+            public void call(Subscriber<? super Integer> o) {
+                source.call(hook.onLift(map).call(o));
+            }
+        };
+        Subscriber<Integer> first = Subscribers.empty();
+        Subscriber<Integer> second = Subscribers.empty();
+        hook.onSubscribeStart(null, mapped).call(first);
+        hook.onSubscribeStart(null, mapped).call(second);
+
+        assertEquals(4, listener.getSubscriberCount());
+        assertEquals(1, listener.getOperatorCount());
+        List<Link> chain = listener.getChain(first);
+        assertEquals(2, chain.size());
+        assertSame(map, chain.get(0).getTo());
+        assertSame(first, chain.get(1).getObserver());
+        List<Link> other = listener.getChain(second);
+        assertEquals(2, other.size());
+        assertSame(second, other.get(1).getObserver());
+        assertNotSame(chain.get(0).getObserver(), other.get(0).getObserver());
+        assertEquals(chain.get(0).getObserver(), listener.getChain(chain.get(0).getObserver()).get(0).getObserver());
+    }
+
+    @Test
+    public void testEventsAfterEndIgnored() {
+        OperatorGraphDebugNotificationListener listener = new OperatorGraphDebugNotificationListener();
+        Subscriber<Integer> actual = Subscribers.empty();
+        DebugSubscriber<Integer, Object> s = new DebugSubscriber<Integer, Object>(listener, actual, null, null);
+        s.onNext(1);
+        assertEquals(1, listener.getSubscriberCount());
+        s.onCompleted();
+        listener.start(DebugNotification.createRequest(actual, null, null, 1));
+        s.onNext(2);
+        assertEquals(0, listener.getSubscriberCount());
+        assertTrue(listener.getSnapshot().isEmpty());
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import rx.Observable.Operator;
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.functions.Func1;
+import rx.internal.operators.OperatorMap;
+import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.ProfilingDebugNotificationListener;
+import rx.plugins.ProfilingDebugNotificationListener.Times;
+
+public class ProfilingDebugNotificationListenerTest {
+    @Test
+    public void testSelfTime() {
+        ProfilingDebugNotificationListener listener = new ProfilingDebugNotificationListener();
+        Operator<Integer, Integer> map = new OperatorMap<Integer, Integer>(new Func1<Integer, Integer>() {
+            @Override
+            public Integer call(Integer t) {
+                return t;
+            }
+        });
+        Subscriber<Integer> slow = Subscribers.create(new Action1<Integer>() {
+            @Override
+            public void call(Integer t) {
+                final long end = System.nanoTime() + 2000000;
+                while (System.nanoTime() < end) {
+                }
+            }
+        });
+        Subscriber<Integer> last = new DebugSubscriber<Integer, Object>(listener, slow, map, null);
+        Subscriber<Integer> first = new DebugSubscriber<Integer, Object>(listener, last, null, map);
+        first.onNext(1);
+        first.onNext(2);
+
+        Map<String, Times> times = listener.getOperatorTimes();
+        Times mapTimes = times.get(OperatorMap.class.getName() + ".OnNext");
+        Times slowTimes = times.get(slow.getClass().getName() + ".OnNext");
+        assertEquals(2, mapTimes.getCalls());
+        assertEquals(2, slowTimes.getCalls());
+        assertTrue(slowTimes.getSelf() >= 4000000);
+        assertTrue(mapTimes.getInclusive() >= slowTimes.getInclusive());
+        assertTrue(mapTimes.getSelf() < slowTimes.getSelf());
+
+        String[] lines = listener.getFoldedStacks().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[1], lines[1].startsWith(OperatorMap.class.getName() + ".OnNext;" + slow.getClass().getName() + ".OnNext "));
+
+        listener.reset();
+        assertTrue(listener.getOperatorTimes().isEmpty());
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import rx.Subscriber;
+import rx.observers.Subscribers;
+import rx.plugins.DebugNotification;
+import rx.plugins.RingBufferDebugNotificationListener;
+import rx.plugins.SimpleContext;
+
+public class RingBufferDebugNotificationListenerTest {
+    private final Subscriber<Integer> subscriber = Subscribers.empty();
+
+    @Test
+    public void testCapacityRoundedUp() {
+        assertEquals(8, new RingBufferDebugNotificationListener(5).getCapacity());
+        assertEquals(8, new RingBufferDebugNotificationListener(8).getCapacity());
+    }
+
+    @Test
+    public void testOverwritesOldest() {
+        RingBufferDebugNotificationListener listener = new RingBufferDebugNotificationListener(4);
+        for (int i = 0; i < 10; i++) {
+            SimpleContext<?> context = listener.start(DebugNotification.createOnNext(subscriber, null, i, null));
+            listener.complete(context);
+        }
+
+        List<SimpleContext<?>> snapshot = listener.getSnapshot();
+        assertEquals(4, snapshot.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(6 + i, snapshot.get(i).getNotification().getValue());
+            assertTrue(snapshot.get(i).getEnd() != -1);
+        }
+        assertEquals(10, listener.getCount());
+        assertEquals(6, listener.getOverwritten());
+    }
+
+    @Test
+    public void testConcurrentWriters() throws InterruptedException {
+        final RingBufferDebugNotificationListener listener = new RingBufferDebugNotificationListener(1024);
+        final int threads = 4;
+        final int events = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < events; i++) {
+                        listener.complete(listener.start(DebugNotification.createOnNext(subscriber, null, i, null)));
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        while (done.getCount() > 0) {
+            assertTrue(listener.getSnapshot().size() <= 1024);
+            Thread.yield();
+        }
+        done.await();
+
+        assertEquals(threads * events, listener.getCount());
+        assertEquals(1024, listener.getSnapshot().size());
+    }
+}
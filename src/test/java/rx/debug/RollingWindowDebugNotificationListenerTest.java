@@ -0,0 +1,94 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import rx.Subscriber;
+import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.DebugClock;
+import rx.plugins.RollingWindowDebugNotificationListener;
+import rx.plugins.RollingWindowDebugNotificationListener.Stats;
+
+public class RollingWindowDebugNotificationListenerTest {
+    private static class ManualClock extends DebugClock {
+        long now = 1000;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    @Test
+    public void testEviction() {
+        ManualClock clock = new ManualClock();
+        final long bucket = TimeUnit.MILLISECONDS.toNanos(20);
+        RollingWindowDebugNotificationListener listener = new RollingWindowDebugNotificationListener(20, TimeUnit.MILLISECONDS, 3, clock);
+        Subscriber<Integer> s = new DebugSubscriber<Integer, Object>(listener, Subscribers.<Integer> empty(), null, null);
+        s.onNext(1);
+        clock.now += bucket;
+        s.onNext(2);
+        s.onCompleted();
+
+        Map<String, Stats> stats = listener.getStats(60, TimeUnit.MILLISECONDS);
+        Stats sources = stats.get(null);
+        assertEquals(2, sources.getOnNext());
+        assertEquals(1, sources.getCompleted());
+        assertEquals(3, sources.getEvents());
+        assertEquals(0, sources.getTotalNanos());
+        assertEquals(2 * bucket, sources.getWindowNanos());
+        assertEquals(1, listener.getStats(20, TimeUnit.MILLISECONDS).get(null).getOnNext());
+
+        clock.now += 3 * bucket;
+        assertNull(listener.getLastMinute().get(null));
+        s.onNext(3);
+        assertEquals(1, listener.getLast15Minutes().get(null).getOnNext());
+    }
+
+    @Test
+    public void testTimesEvents() {
+        final ManualClock clock = new ManualClock();
+        RollingWindowDebugNotificationListener listener = new RollingWindowDebugNotificationListener(1, TimeUnit.SECONDS, 10, clock);
+        Subscriber<Integer> actual = new Subscriber<Integer>() {
+            @Override
+            public void onCompleted() {
+            }
+
+            @Override
+            public void onError(Throwable e) {
+            }
+
+            @Override
+            public void onNext(Integer t) {
+                clock.now += t;
+            }
+        };
+        Subscriber<Integer> s = new DebugSubscriber<Integer, Object>(listener, actual, null, null);
+        s.onNext(100);
+        s.onNext(300);
+
+        Stats sources = listener.getLastMinute().get(null);
+        assertEquals(2, sources.getEvents());
+        assertEquals(400, sources.getTotalNanos());
+        assertEquals(300, sources.getMaxNanos());
+        assertEquals(200, sources.getMeanNanos(), 0);
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import rx.Subscriber;
+import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.DebugNotification;
+import rx.plugins.SequenceMerge;
+import rx.plugins.SimpleContext;
+import rx.plugins.SimpleDebugNotificationListener;
+
+public class SequenceMergeTest {
+    @Test
+    public void testMerge() {
+        @SuppressWarnings("unchecked")
+        List<List<Integer>> runs = Arrays.asList(Arrays.asList(1, 4, 7), Arrays.<Integer> asList(), Arrays.asList(2, 3, 8, 9), Arrays.asList(5, 6));
+        List<Integer> merged = SequenceMerge.merge(runs, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return a.compareTo(b);
+            }
+        });
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9), merged);
+    }
+
+    @Test
+    public void testSequenceAcrossSubscribers() throws InterruptedException {
+        SimpleDebugNotificationListener listener = new SimpleDebugNotificationListener();
+        final Subscriber<Integer> a = new DebugSubscriber<Integer, SimpleContext<?>>(listener, Subscribers.<Integer> empty(), null, null);
+        Subscriber<Integer> b = new DebugSubscriber<Integer, SimpleContext<?>>(listener, Subscribers.<Integer> empty(), null, null);
+        a.onNext(1);
+        b.onNext(2);
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                a.onNext(3);
+            }
+        });
+        other.start();
+        other.join();
+        b.onNext(4);
+
+        List<SimpleContext<?>> ordered = listener.getNotificationsInOrder();
+        assertEquals(4, ordered.size());
+        long last = 0;
+        for (int i = 0; i < ordered.size(); i++) {
+            DebugNotification<?> n = ordered.get(i).getNotification();
+            assertEquals(i + 1, n.getValue());
+            assertTrue(n.getSequence() > last);
+            last = n.getSequence();
+        }
+        DebugNotification<?> third = ordered.get(2).getNotification();
+        assertEquals(1, third.getThreadSequence());
+        assertEquals(other.getId(), third.getThreadId());
+        assertEquals(ordered.get(1).getNotification().getThreadSequence() + 1, ordered.get(3).getNotification().getThreadSequence());
+    }
+
+    @Test
+    public void testNumberedWhenFirstAsked() {
+        Subscriber<Integer> actual = Subscribers.empty();
+        DebugNotification<Integer> first = DebugNotification.createOnNext(actual, null, 1, null);
+        DebugNotification<Integer> second = DebugNotification.createOnNext(actual, null, 2, null);
+        long sequence = second.getSequence();
+        assertTrue(first.getSequence() > sequence);
+        assertEquals(sequence, second.getSequence());
+        assertEquals(first.getSequence(), first.snapshot().getSequence());
+        assertEquals(Thread.currentThread().getId(), first.getThreadId());
+    }
+}
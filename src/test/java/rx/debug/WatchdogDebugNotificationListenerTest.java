@@ -0,0 +1,123 @@
+/**
+ * Copyright 2014 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+package rx.debug;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.observers.Subscribers;
+import rx.operators.DebugSubscriber;
+import rx.plugins.DebugNotification;
+import rx.plugins.RingBufferDebugNotificationListener;
+import rx.plugins.WatchdogDebugNotificationListener;
+import rx.plugins.WatchdogDebugNotificationListener.Incident;
+
+public class WatchdogDebugNotificationListenerTest {
+    @Test
+    public void testSlowOnNextStartsTrace() {
+        RingBufferDebugNotificationListener recorder = new RingBufferDebugNotificationListener(16);
+        WatchdogDebugNotificationListener watchdog = new WatchdogDebugNotificationListener(20, TimeUnit.MILLISECONDS, 10, TimeUnit.SECONDS, recorder);
+        try {
+            Subscriber<Integer> actual = Subscribers.create(new Action1<Integer>() {
+                @Override
+                public void call(Integer t) {
+                    if (t == 2) {
+                        try {
+                            Thread.sleep(200);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            });
+            Subscriber<Integer> s = new DebugSubscriber<Integer, Object>(watchdog, actual, null, null);
+            s.onNext(1);
+            assertTrue(watchdog.getIncidents().isEmpty());
+            s.onNext(2);
+            s.onNext(3);
+
+            List<Incident> incidents = watchdog.getIncidents();
+            assertEquals(1, incidents.size());
+            Incident incident = incidents.get(0);
+            assertEquals(Thread.currentThread().getName(), incident.getThread());
+            assertTrue(incident.getElapsedNanos() > TimeUnit.MILLISECONDS.toNanos(20));
+            assertEquals(1, incident.getChain().size());
+            assertTrue(incident.getChain().get(0), incident.getChain().get(0).startsWith("OnNext source -> subscriber"));
+            assertTrue(watchdog.isTracing());
+            assertEquals(1, recorder.getCount());
+            assertEquals(3, recorder.getSnapshot().get(0).getNotification().getValue());
+        } finally {
+            watchdog.close();
+        }
+    }
+
+    @Test
+    public void testCompletedOnAnotherThread() throws InterruptedException {
+        RingBufferDebugNotificationListener recorder = new RingBufferDebugNotificationListener(16);
+        final WatchdogDebugNotificationListener watchdog = new WatchdogDebugNotificationListener(20, TimeUnit.MILLISECONDS, 10, TimeUnit.SECONDS, recorder);
+        try {
+            final Object context = watchdog.start(DebugNotification.createOnNext(Subscribers.<Integer> empty(), null, 1, null));
+            Thread other = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    watchdog.complete(context);
+                }
+            });
+            other.start();
+            other.join();
+            assertEquals(1, watchdog.getMismatched());
+
+            Thread.sleep(50);
+            watchdog.check();
+            assertTrue(watchdog.getIncidents().isEmpty());
+
+            Subscriber<Integer> actual = Subscribers.create(new Action1<Integer>() {
+                @Override
+                public void call(Integer t) {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            new DebugSubscriber<Integer, Object>(watchdog, actual, null, null).onNext(2);
+            List<Incident> incidents = watchdog.getIncidents();
+            assertEquals(1, incidents.size());
+            assertEquals(1, incidents.get(0).getChain().size());
+        } finally {
+            watchdog.close();
+        }
+    }
+
+    @Test
+    public void testCompletedTwice() {
+        RingBufferDebugNotificationListener recorder = new RingBufferDebugNotificationListener(16);
+        WatchdogDebugNotificationListener watchdog = new WatchdogDebugNotificationListener(20, TimeUnit.MILLISECONDS, 10, TimeUnit.SECONDS, recorder);
+        try {
+            Object context = watchdog.start(DebugNotification.createOnNext(Subscribers.<Integer> empty(), null, 1, null));
+            watchdog.complete(context);
+            watchdog.complete(context);
+            assertEquals(1, watchdog.getMismatched());
+        } finally {
+            watchdog.close();
+        }
+    }
+}